@@ -0,0 +1,122 @@
+/**
+ * class ARCPolicy
+ *
+ * Adaptive Replacement Cache (Megiddo and Modha, FAST '03).  T1 holds
+ * pages referenced once recently and T2 pages referenced at least twice.
+ * The ghost lists B1 and B2 remember the blocks recently evicted from
+ * each of them; a miss on a ghost block moves the target size of T1
+ * (p) toward the list that would have kept it.  This lets the cache
+ * shift between recency and frequency as the workload changes.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+public class ARCPolicy implements EvictionPolicy {
+   private static final int NONE = 0;
+   private static final int T1 = 1;
+   private static final int T2 = 2;
+
+   private PageList t1;
+   private PageList t2;
+   private GhostList b1;
+   private GhostList b2;
+   private int[] where;
+   private int[] blocks;
+   private boolean[] held;
+   private int c;   // cache size in pages
+   private int p;   // target size of T1
+
+   public ARCPolicy(int npages) {
+      c = npages;
+      p = 0;
+      t1 = new PageList(npages);
+      t2 = new PageList(npages);
+      b1 = new GhostList(npages);
+      b2 = new GhostList(npages);
+      where = new int[npages];
+      blocks = new int[npages];
+      held = new boolean[npages];
+   }
+
+   public String name() {
+      return "arc";
+   }
+
+   public void insert(int page, int block) {
+      remove(page);
+      blocks[page] = block;
+      if (b1.contains(block)) {
+         // T1 was too small
+         p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+         b1.remove(block);
+         where[page] = T2;
+         t2.addLast(page);
+      }
+      else if (b2.contains(block)) {
+         // T2 was too small
+         p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+         b2.remove(block);
+         where[page] = T2;
+         t2.addLast(page);
+      }
+      else {
+         where[page] = T1;
+         t1.addLast(page);
+      }
+      // |T1| + |B1| <= c and the directory as a whole <= 2c
+      while (b1.size() > 0 && t1.size() + b1.size() > c)
+         b1.removeOldest();
+      while (b2.size() > 0
+             && t1.size() + t2.size() + b1.size() + b2.size() > 2 * c)
+         b2.removeOldest();
+   }
+
+   public void touch(int page) {
+      if (where[page] == T1 && t1.contains(page)) {
+         t1.remove(page);
+         where[page] = T2;
+         t2.addLast(page);
+      }
+      else if (where[page] == T2) {
+         t2.moveToLast(page);
+      }
+   }
+
+   public void remove(int page) {
+      list(page).remove(page);
+      where[page] = NONE;
+      held[page] = false;
+   }
+
+   public void setEvictable(int page, boolean evictable) {
+      if (held[page] == !evictable || where[page] == NONE)
+         return;
+      held[page] = !evictable;
+      if (evictable)
+         list(page).addLast(page);
+      else
+         list(page).remove(page);
+   }
+
+   public int evict() {
+      int page;
+      if (t1.size() > 0 && (t1.size() > p || t2.size() == 0)) {
+         page = t1.first();
+         t1.remove(page);
+         b1.add(blocks[page]);
+      }
+      else {
+         page = t2.first();
+         if (page < 0)
+            return -1;
+         t2.remove(page);
+         b2.add(blocks[page]);
+      }
+      where[page] = NONE;
+      return page;
+   }
+
+   private PageList list(int page) {
+      return where[page] == T2 ? t2 : t1;
+   }
+}
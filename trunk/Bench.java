@@ -0,0 +1,318 @@
+/**
+ * class Bench
+ *
+ * Rough throughput measurements of the simulator.  Run it in a scratch
+ * directory that holds a system.properties: it writes its own trace
+ * file and formats the disk_file named there.
+ *
+ *   java Bench replay [procs] [ops]
+ *      replay a generated trace of procs processes doing ops file
+ *      operations each, and report simulated events per second
+ *   java Bench compute [procs] [ops]
+ *      the same with compute bursts only, which leaves out the file
+ *      system and the disk
+ *   java Bench burst [procs] [ticks]
+ *      one long compute burst of ticks per process, and report
+ *      simulated ticks per second
+ *   java Bench heap [pending] [ops]
+ *      hold pending events in the callback queue while, ops times,
+ *      the earliest is taken out and a later one added; for the
+ *      EventHeap the CallbackManager uses and the TreeSet it used
+ *      before
+ *   java Bench parse [copies]
+ *      load a trace made of copies of simple0-2.tr and report trace
+ *      lines per second; with trace_streaming true the load is just
+ *      reading and parsing.  Then the same for the trace compiled by
+ *      TraceCompiler, plain and gzipped
+ *   java Bench seek [procs] [blocks]
+ *      procs processes write files of blocks blocks side by side, a
+ *      block at a time, then read them back; report how far the disk
+ *      head moved, for comparing prealloc_blocks settings
+ *   java Bench create [files]
+ *      one process creates files files, which takes a directory of
+ *      many blocks, then opens some of them; on a disk made just
+ *      large enough for that many inodes
+ *
+ * Bench only measures the tree it is built in.  A before number for
+ * a change comes from building a Bench into the parent tree too: the
+ * first Bench, with replay and compute only, builds in any tree that
+ * has OSEvent.happened(), which is a three-line counter to add to one
+ * that does not.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class Bench {
+
+   public static void main(String[] args) throws Exception {
+      String mode = (args.length > 0) ? args[0] : "replay";
+      int procs = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+      int ops = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+      if (mode.equals("replay")) {
+         replay(procs, ops, true);
+      } else if (mode.equals("compute")) {
+         replay(procs, ops, false);
+      } else if (mode.equals("burst")) {
+         burst(procs, (args.length > 2) ? Integer.parseInt(args[2]) : 1000000);
+      } else if (mode.equals("parse")) {
+         parse((args.length > 1) ? procs : 2000);
+      } else if (mode.equals("seek")) {
+         seek(procs, (args.length > 2) ? ops : 8);
+      } else if (mode.equals("create")) {
+         create((args.length > 1) ? procs : 20000);
+      } else if (mode.equals("heap")) {
+         heap((args.length > 1) ? procs : 10000,
+              (args.length > 2) ? ops : 2000000);
+      } else {
+         usage();
+      }
+   }
+
+   private static void usage() {
+      System.out.println("Usage: java Bench replay|compute|burst|heap|parse|seek|create [procs|pending|copies|files] [ops|ticks|blocks]");
+      System.exit(-1);
+   }
+
+   /** run the whole simulator once over a generated trace */
+   static void replay(int procs, int ops, boolean io) throws IOException {
+      String trace = "bench.tr";
+      writeTrace(trace, procs, ops, io, 3);
+      long nanos = simulate(trace);
+      report((io ? "replay " : "compute ") + procs + "x" + ops, OSEvent.happened(),
+             "events", nanos);
+   }
+
+   /** run one long burst per process, which is all ticks and no events */
+   static void burst(int procs, int ticks) throws IOException {
+      String trace = "bench.tr";
+      writeTrace(trace, procs, 1, false, ticks);
+      long nanos = simulate(trace);
+      report("burst " + procs + "x" + ticks + " (fast_forward "
+             + ProcessTrace.getEnv("fast_forward") + ")",
+             (long)procs * ticks, "ticks", nanos);
+   }
+
+   /** interleave sequential writers and measure the seeks that follow */
+   static void seek(int procs, int blocks) throws IOException {
+      String trace = "bench.tr";
+      PrintWriter w = new PrintWriter(new FileWriter(trace));
+      for (int p = 0; p < procs; p++)
+         w.println("  0 proc_create(" + (100 + p) + ")");
+      for (int p = 0; p < procs; p++) {
+         int pid = 100 + p;
+         int fd = 3 + p;
+         w.println(pid + " create(/seek" + pid + ")");
+         w.println(pid + " open(/seek" + pid + ", O_RDWR) = " + fd);
+         // The computes let the others write in between
+         for (int b = 0; b < blocks; b++) {
+            w.println(pid + " write(" + fd + ", " + Disk.BYTES_PER_SECTOR + ") = 0x5A");
+            w.println(pid + " compute(17, 3)");
+         }
+         w.println(pid + " seek(" + fd + ", SEEK_SET, 0)");
+         w.println(pid + " read(" + fd + ", " + blocks * Disk.BYTES_PER_SECTOR + ")");
+         w.println(pid + " close(" + fd + ")");
+         w.println(pid + " proc_kill(" + pid + ")");
+      }
+      w.println("  0 proc_kill(0)");
+      w.close();
+      long nanos = simulate(trace);
+      System.out.println("seek " + procs + "x" + blocks + " (prealloc_blocks "
+                         + ProcessTrace.getEnv("prealloc_blocks") + ", mem_percentage "
+                         + ProcessTrace.getEnv("mem_percentage") + "): "
+                         + Stat.getInt("disk_sectors_travelled") + " sectors travelled, "
+                         + Stat.getInt("blocks_contiguous") + " of "
+                         + Stat.getInt("blocks_allocated") + " blocks contiguous");
+      System.out.println("  seek distance: " + Stat.histogram("disk_seek_distance"));
+   }
+
+   /** create files files in the root directory and open some */
+   static void create(int files) throws IOException {
+      String trace = "bench.tr";
+      PrintWriter w = new PrintWriter(new FileWriter(trace));
+      w.println("  0 proc_create(100)");
+      for (int f = 0; f < files; f++)
+         w.println("100 create(/f" + f + ")");
+      // Every fd is used once, as close does not free it
+      int opens = Math.min(files, VFS.MAX_OPEN_FILE - 3);
+      for (int i = 0; i < opens; i++) {
+         int fd = 3 + i;
+         w.println("100 open(/f" + (int)((long)i * files / opens) + ", O_RDWR) = " + fd);
+         w.println("100 close(" + fd + ")");
+      }
+      w.println("100 proc_kill(100)");
+      w.println("  0 proc_kill(0)");
+      w.close();
+      // An inode block every inode_block_ratio + 1 sectors, and room for
+      // the directory blocks in between
+      int perBlock = Integer.parseInt(ProcessTrace.getEnv("inodes_per_block"));
+      int ratio = Integer.parseInt(ProcessTrace.getEnv("inode_block_ratio"));
+      int sectors = 16 + (ratio + 1) * (files / perBlock + 2);
+      long nanos = simulate(trace, (sectors * Disk.BYTES_PER_SECTOR / 1024) + "k");
+      report("create " + files + " (" + opens + " opened, "
+             + sectors + " sectors)", OSEvent.happened(), "events", nanos);
+   }
+
+   /**
+    * The classic hold model: take out the earliest event and schedule
+    * one a random delay after it, so the queue stays at pending.  The
+    * times are worked out first and given to the events by scheduling
+    * them all through the CallbackManager, which is then drained.
+    */
+   static void heap(int pending, int ops) {
+      Random rand = new Random(372);
+      int range = 4 * pending;
+      int[] times = new int[pending + ops];
+      HashSet<Integer> used = new HashSet<Integer>();
+      PriorityQueue<Integer> model = new PriorityQueue<Integer>();
+      for (int i = 0; i < times.length; i++) {
+         int t = 1 + rand.nextInt(range);
+         if (i >= pending)
+            t += model.poll().intValue();
+         // Keep times distinct, the TreeSet would drop a duplicate
+         while (!used.add(Integer.valueOf(t))) t++;
+         times[i] = t;
+         model.add(Integer.valueOf(t));
+      }
+      OSEvent[] evs = new OSEvent[times.length];
+      for (int i = 0; i < evs.length; i++) {
+         evs[i] = new OSEvent(OSEvent.INT_DISK_READ, 0);
+         CallbackManager.set_now(times[i]);
+         CallbackManager.schedule_event(evs[i]);
+      }
+      while (!CallbackManager.isEmpty())
+         CallbackManager.remove(CallbackManager.first());
+
+      for (int round = 0; round < 3; round++) {
+         long start = System.nanoTime();
+         TreeSet<OSEvent> ts = new TreeSet<OSEvent>();
+         for (int i = 0; i < pending; i++)
+            ts.add(evs[i]);
+         for (int i = pending; i < evs.length; i++) {
+            ts.remove(ts.first());
+            ts.add(evs[i]);
+         }
+         report("TreeSet hold " + pending, ops, "ops", System.nanoTime() - start);
+
+         start = System.nanoTime();
+         EventHeap heap = new EventHeap();
+         for (int i = 0; i < pending; i++)
+            heap.add(evs[i]);
+         for (int i = pending; i < evs.length; i++) {
+            heap.remove(heap.first());
+            heap.add(evs[i]);
+         }
+         report("EventHeap hold " + pending, ops, "ops", System.nanoTime() - start);
+         while (heap.poll() != null);
+      }
+   }
+
+   /** time loading copies of the sample traces, which are not run */
+   static void parse(int copies) throws IOException {
+      String trace = "bench.tr";
+      String[] samples = { "simple0.tr", "simple1.tr", "simple2.tr" };
+      PrintWriter w = new PrintWriter(new FileWriter(trace));
+      long lines = 0;
+      for (int c = 0; c < copies; c++) {
+         for (int i = 0; i < samples.length; i++) {
+            BufferedReader r = new BufferedReader(new FileReader(samples[i]));
+            String line;
+            while ((line = r.readLine()) != null) {
+               w.println(line);
+               lines++;
+            }
+            r.close();
+         }
+      }
+      w.close();
+      String[] traces = { trace, "bench.trb", "bench.trb.gz" };
+      for (int i = 1; i < traces.length; i++) {
+         TraceCompiler tc = new TraceCompiler(traces[i], traces[i].endsWith(".gz"));
+         tc.compile(trace);
+         tc.close();
+      }
+      for (int i = 0; i < traces.length; i++) {
+         long start = System.nanoTime();
+         new ProcessTrace(traces[i]);
+         report("parse " + traces[i] + " " + copies + " copies (trace_streaming "
+                + ProcessTrace.getEnv("trace_streaming") + ", "
+                + new File(traces[i]).length() + " bytes)", lines, "lines",
+                System.nanoTime() - start);
+      }
+   }
+
+   /** format the disk and run the simulator over trace, quietly */
+   static long simulate(String trace) throws IOException {
+      return simulate(trace, "1M");
+   }
+
+   /** simulate(trace), on a disk of size as Mkfs takes it */
+   static long simulate(String trace, String size) throws IOException {
+      Mkfs.main(new String[] { ProcessTrace.getEnv("disk_file"), size });
+      PrintStream out = System.out;
+      System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int off, int len) { }
+         }));
+      long start = System.nanoTime();
+      try {
+         ProcessTrace.main(new String[] { trace });
+      }
+      finally {
+         System.setOut(out);
+      }
+      return System.nanoTime() - start;
+   }
+
+   /**
+    * Each process opens its own file and cycles through a write, a seek
+    * and a read on the start of it, with computes in between.  Reads are
+    * kept rare because every block read is dumped to the read check file.
+    * Without io there are computes only.  Computes are burst ticks long.
+    */
+   static void writeTrace(String fileName, int procs, int ops, boolean io,
+                          int burst) throws IOException {
+      PrintWriter w = new PrintWriter(new FileWriter(fileName));
+      for (int p = 0; p < procs; p++)
+         w.println("  0 proc_create(" + (100 + p) + ")");
+      for (int p = 0; p < procs; p++) {
+         int pid = 100 + p;
+         int fd = 3 + p;
+         if (io) {
+            w.println(pid + " create(/bench" + pid + ")");
+            w.println(pid + " open(/bench" + pid + ", O_RDWR) = " + fd);
+         }
+         for (int i = 0; i < ops; i++) {
+            switch (io ? i % 8 : 1) {
+            case 0: w.println(pid + " write(" + fd + ", 64) = 0x5A"); break;
+            case 4: w.println(pid + " seek(" + fd + ", SEEK_SET, 0)"); break;
+            case 7: w.println(pid + " read(" + fd + ", 64)"); break;
+            default: w.println(pid + " compute(17, " + burst + ")");
+            }
+         }
+         if (io)
+            w.println(pid + " close(" + fd + ")");
+         w.println(pid + " proc_kill(" + pid + ")");
+      }
+      w.println("  0 proc_kill(0)");
+      w.close();
+   }
+
+   static void report(String what, long n, String unit, long nanos) {
+      double secs = nanos / 1e9;
+      System.out.println(what + ": " + n + " " + unit + " in "
+                         + String.format("%.3f", secs) + " s, "
+                         + String.format("%.0f", n / secs) + " " + unit + "/s");
+   }
+}
@@ -0,0 +1,259 @@
+/**
+ * class BinaryTraceReader
+ *
+ * Reads the compact traces TraceCompiler writes.  A binary trace is
+ * MAGIC and then one record per event: the pid, the opcode (the
+ * syscall's event number) as one byte, and the syscall's fields.
+ * Numbers are varints, zigzag encoded where they can be negative, and
+ * file names are their length and then their ISO-8859-1 bytes.  The
+ * fields of each syscall are:
+ *
+ *   proc_create   new pid
+ *   compute       data, ticks
+ *   proc_kill     none, a process only kills itself
+ *   create        file name
+ *   open          file name, mode, fd
+ *   close         fd
+ *   write         fd, length, data
+ *   read          fd, length
+ *   seek          fd, whence, offset
+ *
+ * The file may be gzipped as a whole.  Only a plain one can seek,
+ * which the streaming mode of ProcessTrace needs.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+public class BinaryTraceReader {
+
+   static final byte[] MAGIC = { (byte)0x89, 'T', 'R', 'B' };
+   static final int VERSION = 1;
+
+   /** @return true if fname starts like a binary trace, gzipped or not */
+   static boolean isBinary(String fname) throws IOException {
+      InputStream in = new FileInputStream(fname);
+      try {
+         int b0 = in.read(), b1 = in.read();
+         if (b0 == 0x1f && b1 == 0x8b) return true;
+         return b0 == (MAGIC[0] & 0xff) && b1 == MAGIC[1];
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   BinaryTraceReader(String fname) throws IOException {
+      InputStream in = new FileInputStream(fname);
+      int b0 = in.read(), b1 = in.read();
+      in.close();
+      if (b0 == 0x1f && b1 == 0x8b) {
+         stream = new GZIPInputStream(new FileInputStream(fname), 65536);
+         buf = new byte[65536];
+      } else {
+         file = new TraceReader(fname);
+      }
+      for (int i = 0; i < MAGIC.length; i++) {
+         if (read() != (MAGIC[i] & 0xff))
+            throw new IOException(fname + " is not a binary trace");
+      }
+      int version = readUnsigned();
+      if (version != VERSION)
+         throw new IOException(fname + " is binary trace version " + version
+                               + ", expected " + VERSION);
+   }
+
+   /** @return false if the trace is gzipped, so it cannot seek */
+   boolean canSeek() {
+      return file != null;
+   }
+
+   /** @return the offset of the next record */
+   long position() {
+      return file.position();
+   }
+
+   /** the next record read starts at offset, which should start one */
+   void seek(long offset) {
+      file.seek(offset);
+   }
+
+   /**
+    * Read the pid and opcode of the next record.  Then event() reads
+    * the rest of it, or skip() passes over it.
+    * @return false at end of file
+    */
+   boolean next() throws IOException {
+      int b = read();
+      if (b < 0) return false;
+      pid = readSigned(b);
+      opcode = readByte();
+      return true;
+   }
+
+   int pid() { return pid; }
+   int opcode() { return opcode; }
+
+   /** @return the event of the record next() started */
+   OSEvent event() throws IOException {
+      OSEvent ev = new OSEvent(opcode, pid);
+      switch (opcode) {
+      case OSEvent.SYSCALL_PROC_CREATE:
+         ev.setNewPid(readSigned());
+         break;
+      case OSEvent.SYSCALL_COMPUTE:
+         ev.setData(readSigned());
+         ev.setTicks(readUnsigned());
+         break;
+      case OSEvent.SYSCALL_PROC_KILL:
+         ev.setKillPid(pid);
+         break;
+      case OSEvent.SYSCALL_CREATE:
+         ev.setFileName(readName());
+         break;
+      case OSEvent.SYSCALL_OPEN:
+         ev.setFileName(readName());
+         ev.setMode(readUnsigned());
+         ev.setFd(readSigned());
+         break;
+      case OSEvent.SYSCALL_CLOSE:
+         ev.setFd(readSigned());
+         break;
+      case OSEvent.SYSCALL_WRITE:
+         ev.setFd(readSigned());
+         ev.setLength(readUnsigned());
+         ev.setData(readSigned());
+         break;
+      case OSEvent.SYSCALL_READ:
+         ev.setFd(readSigned());
+         ev.setLength(readUnsigned());
+         break;
+      case OSEvent.SYSCALL_SEEK: {
+         ev.setFd(readSigned());
+         int whence = readSigned();
+         // An unknown whence was left unset
+         if (whence != -1) ev.setWhence(whence);
+         ev.setOffset(readSigned());
+         break;
+      }
+      default:
+         throw new IOException("Bad opcode " + opcode + " in binary trace");
+      }
+      if (ev.getTicks() == OSEvent.UNSET) {
+         ev.setTicks(1);
+      }
+      return ev;
+   }
+
+   /** pass over the rest of the record next() started */
+   void skip() throws IOException {
+      switch (opcode) {
+      case OSEvent.SYSCALL_PROC_KILL:
+         break;
+      case OSEvent.SYSCALL_PROC_CREATE:
+      case OSEvent.SYSCALL_CLOSE:
+         skipVarints(1);
+         break;
+      case OSEvent.SYSCALL_COMPUTE:
+      case OSEvent.SYSCALL_READ:
+         skipVarints(2);
+         break;
+      case OSEvent.SYSCALL_WRITE:
+      case OSEvent.SYSCALL_SEEK:
+         skipVarints(3);
+         break;
+      case OSEvent.SYSCALL_CREATE:
+         skipBytes(readUnsigned());
+         break;
+      case OSEvent.SYSCALL_OPEN:
+         skipBytes(readUnsigned());
+         skipVarints(2);
+         break;
+      default:
+         throw new IOException("Bad opcode " + opcode + " in binary trace");
+      }
+   }
+
+   void close() throws IOException {
+      if (file != null) file.close();
+      else stream.close();
+   }
+
+   private int read() throws IOException {
+      if (file != null) return file.read();
+      if (pos == limit) {
+         // Our own buffer, reading the stream a byte at a time is slow
+         limit = stream.read(buf);
+         pos = 0;
+         if (limit <= 0) {
+            limit = 0;
+            return -1;
+         }
+      }
+      return buf[pos++] & 0xff;
+   }
+
+   private int readByte() throws IOException {
+      int b = read();
+      if (b < 0) throw new IOException("Binary trace ends inside a record");
+      return b;
+   }
+
+   private int readUnsigned() throws IOException {
+      return readUnsigned(readByte());
+   }
+
+   /** a varint whose first byte, b, has been read */
+   private int readUnsigned(int b) throws IOException {
+      int value = b & 0x7f;
+      for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+         if (shift > 28) throw new IOException("Varint too long in binary trace");
+         b = readByte();
+         value |= (b & 0x7f) << shift;
+      }
+      return value;
+   }
+
+   private int readSigned() throws IOException {
+      return readSigned(readByte());
+   }
+
+   private int readSigned(int b) throws IOException {
+      int z = readUnsigned(b);
+      return (z >>> 1) ^ -(z & 1);
+   }
+
+   private String readName() throws IOException {
+      int len = readUnsigned();
+      if (len > name.length) name = new char[Math.max(len, 2 * name.length)];
+      for (int i = 0; i < len; i++)
+         name[i] = (char)readByte();
+      return new String(name, 0, len);
+   }
+
+   private void skipVarints(int n) throws IOException {
+      while (n > 0) {
+         if ((readByte() & 0x80) == 0) n--;
+      }
+   }
+
+   private void skipBytes(int n) throws IOException {
+      for (int i = 0; i < n; i++)
+         readByte();
+   }
+
+   // One of these is the source: a plain file, which can seek, or the
+   // inflated bytes of a gzipped one
+   private TraceReader file;
+   private InputStream stream;
+   private byte[] buf;
+   private int pos;
+   private int limit;
+   // The record next() started
+   private int pid;
+   private int opcode;
+   private char[] name = new char[256];
+}
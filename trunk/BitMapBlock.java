@@ -4,98 +4,214 @@
  * A disk block that holds a bitmap.  Useful for tracking
  * free blocks or free inodes.
  * 
+ * The bits are kept in longs laid out as the block is on disk: bit i
+ * is bit 7 - i%8 of byte i/8, and a ByteBuffer reads the bytes into
+ * longs big-endian, so bit i is the (i%64)th bit of word i/64 counting
+ * from the top.  The count of set bits is kept as bits change.
+ * 
  * @author Jungwoo Ha, Emmett Witchel
  *
  * Copyright (c) 2004-09 University of Texas at Austin
  */
-import java.util.BitSet;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class BitMapBlock {
-   private BitSet bits = null;
+   private long[] words;
+   // Number of bits set
+   private int used;
+   // Where allocate() looks first: just past the bit it last handed out
+   private int hint;
 
    private static final int byteSize = 8;
    private static final int nBits = Disk.BYTES_PER_SECTOR * byteSize;
 	
    public BitMapBlock() {
-      bits = new BitSet(nBits);
+      words = new long[nBits / 64];
    }
 	
    public BitMapBlock(byte[] buf) {
-      bits = new BitSet(nBits);
+      words = new long[nBits / 64];
       this.setBytes(buf);
    }
 
    public void clear() {
-      bits.clear();
+      Arrays.fill(words, 0);
+      used = 0;
+      hint = 0;
+   }
+
+   private static long mask(int index) {
+      return Long.MIN_VALUE >>> (index & 63);
    }
 
    public boolean get(int index) {
-      return bits.get(index);
+      return (words[index >> 6] & mask(index)) != 0;
    }
 
    public void set(int index) {
-      bits.set(index);
+      set(index, true);
    }
 
    public void unset(int index) {
-      bits.set(index, false);
+      set(index, false);
    }
 
    public void set(int index, boolean value) {
-      bits.set(index, value);
+      long m = mask(index);
+      long w = words[index >> 6];
+      if (value && (w & m) == 0) {
+         words[index >> 6] = w | m;
+         used++;
+      } else if (!value && (w & m) != 0) {
+         words[index >> 6] = w & ~m;
+         used--;
+      }
    }
 
+   /**
+    * Set the first clear bit at or after the last one handed out,
+    * wrapping around to the start once.
+    * @return the bit, or -1 if every bit is set
+    */
    public int allocate() {
-      try {
-         int i = bits.nextClearBit(0);
-         if (i >= nBits) return -1;
-         bits.set(i);
-         return i;
+      if (used == nBits) return -1;
+      int i = nextClear(hint, nBits);
+      if (i < 0) i = nextClear(0, hint);
+      if (i < 0) return -1;
+      set(i);
+      hint = (i + 1 == nBits) ? 0 : i + 1;
+      return i;
+   }
+
+   /**
+    * Set the first clear bit at or after goal, wrapping around to the
+    * start once, so a block can be put next to the one before it.
+    * @return the bit, or -1 if every bit is set
+    */
+   public int allocate(int goal) {
+      if (goal < 0 || goal >= nBits) return allocate();
+      if (used == nBits) return -1;
+      int i = nextClear(goal, nBits);
+      if (i < 0) i = nextClear(0, goal);
+      if (i < 0) return -1;
+      set(i);
+      return i;
+   }
+
+   /**
+    * Set n clear bits in a row, the first such run at or after where
+    * allocate() would look.
+    * @return the first bit of the run, or -1 if there is none that long
+    */
+   public int allocateRun(int n) {
+      return allocateRun(n, nBits);
+   }
+
+   /** allocateRun(n), with the run below limit */
+   public int allocateRun(int n, int limit) {
+      limit = Math.min(limit, nBits);
+      int i = findRun(hint, limit, n);
+      if (i < 0) i = findRun(0, Math.min(limit, hint + n - 1), n);
+      if (i < 0) return -1;
+      setRun(i, n);
+      hint = (i + n == nBits) ? 0 : i + n;
+      return i;
+   }
+
+   /** @return how many bits from index on, at most max, are clear */
+   public int clearRun(int index, int max) {
+      if (index < 0 || index >= nBits) return 0;
+      int end = nextSet(index);
+      if (end < 0) end = nBits;
+      return Math.min(end - index, max);
+   }
+
+   /** set the n bits from index on */
+   public void setRun(int index, int n) {
+      for (int i = index; i < index + n; i++)
+         set(i);
+   }
+
+   /** clear the n bits from index on */
+   public void unsetRun(int index, int n) {
+      for (int i = index; i < index + n; i++)
+         unset(i);
+   }
+
+   /** @return the start of the first n clear bits within [from, to), or -1 */
+   private int findRun(int from, int to, int n) {
+      while (from < to) {
+         int i = nextClear(from, to);
+         if (i < 0) return -1;
+         int end = nextSet(i);
+         if (end < 0 || end > to) end = to;
+         if (end - i >= n) return i;
+         from = end;
       }
-      catch (IndexOutOfBoundsException e) {
-         return -1;
+      return -1;
+   }
+
+   /** @return the first clear bit in [from, to), or -1 */
+   private int nextClear(int from, int to) {
+      int w = from >> 6;
+      long free = ~words[w] & (-1L >>> (from & 63));
+      while (true) {
+         if (free != 0) {
+            int i = (w << 6) + Long.numberOfLeadingZeros(free);
+            return (i < to) ? i : -1;
+         }
+         if (++w >= words.length || (w << 6) >= to) return -1;
+         free = ~words[w];
       }
    }
 
    public int numFree() {
-      int free = 0;
-      for (int i = 0; i < bits.size(); i++) {
-         if (!bits.get(i))
-            free++;
-      }
-      return free;
+      return nBits - used;
    }
 
    public int numUsed() {
-      return bits.size() - numFree();
+      return used;
    }
 
    public void setBytes(byte[] k) {
-      for (int i = 0; i < k.length; i++) {
-         for (int j = 0; j < byteSize; j++) {
-            if ((k[i] & (1 << byteSize-j-1)) != 0)
-               bits.set(i * byteSize + j, true);
-            else
-               bits.set(i * byteSize + j, false);
-         }
+      int n = Math.min(k.length, nBits / byteSize);
+      ByteBuffer.wrap(k, 0, n).asLongBuffer().get(words, 0, n / 8);
+      // A short buffer leaves the bits past it alone, byte by byte
+      for (int i = n - n % 8; i < n; i++) {
+         int shift = 56 - 8 * (i % 8);
+         words[i / 8] = (words[i / 8] & ~(0xffL << shift))
+            | ((long)(k[i] & 0xff) << shift);
       }
+      used = 0;
+      for (int w = 0; w < words.length; w++)
+         used += Long.bitCount(words[w]);
    }
 
    public byte[] getBytes() {
-      byte[] buffer = new byte[nBits/byteSize];
-      for (int i = 0; i < nBits/byteSize; i++) {
-         byte result = 0;
-         for (int j = 0; j < byteSize; j++) {
-            byte bit = 0;
-            if (bits.get(i * byteSize + j)) bit = 1;
-            result = (byte)((result << 1) | bit);
-         }
-         buffer[i] = result; 
-      }
-      return buffer;
+      ByteBuffer buffer = ByteBuffer.allocate(nBits/byteSize);
+      buffer.asLongBuffer().put(words);
+      return buffer.array();
    }
 	
+   /** the set bits, in the form BitSet uses */
    public String toString() {
-      return bits.toString();
+      StringBuffer sb = new StringBuffer("{");
+      for (int i = nextSet(0); i >= 0; i = nextSet(i + 1)) {
+         if (sb.length() > 1) sb.append(", ");
+         sb.append(i);
+      }
+      return sb.append("}").toString();
+   }
+
+   private int nextSet(int from) {
+      if (from >= nBits) return -1;
+      int w = from >> 6;
+      long set = words[w] & (-1L >>> (from & 63));
+      while (set == 0) {
+         if (++w >= words.length) return -1;
+         set = words[w];
+      }
+      return (w << 6) + Long.numberOfLeadingZeros(set);
    }
 }
@@ -31,32 +31,40 @@ public class BlockDriver {
       disk = _disk;
    }
 
-   /** ev contains the DiskAddress under key "DiskAddress"
-    * and contains the MemPage under the key "MemPage"
+   /** ev contains the DiskAddress and the MemPage
     */
    void read(OSEvent ev) throws Disk.BadDisk {
       Disk d = disk;
-      DiskAddress sa = (DiskAddress)ev.get("DiskAddress");
-      MemPage iop = (MemPage)ev.get("MemPage");
-      ev.put("Disk", d);
+      DiskAddress sa = ev.getDiskAddress();
+      MemPage iop = ev.getMemPage();
+      ev.setDisk(d);
       disk.read(sa, iop, ev);
-      Dbg.println("bd", "BlockDriver.read(block="+sa.sector_number()+",..)");
-      Dbg.printBytes("bdB", iop.get_bytes(), 0, 64);
+      if (Dbg.isEnabled(Dbg.BD))
+         Dbg.println(Dbg.BD, "BlockDriver.read(block="+sa.sector_number()+",..)");
+      Dbg.printBytes(Dbg.BD_BYTES, iop.get_bytes(), 0, 64);
    }
 
-   /** ev contains the DiskAddress under key "DiskAddress"
-    * and contains the MemPage under the key "MemPage"
+   /** ev contains the DiskAddress and the MemPage
     */
    void write(OSEvent ev) throws Disk.BadDisk {
       Disk d = disk;
-      DiskAddress sa = (DiskAddress)ev.get("DiskAddress");
+      DiskAddress sa = ev.getDiskAddress();
 
-      MemPage iop = (MemPage)ev.get("MemPage");
+      MemPage iop = ev.getMemPage();
 
-      Dbg.println("bd", "BlockDriver.write(block="+sa.sector_number()+",..)");
-      Dbg.printBytes("bdB", iop.get_bytes(), 0, 64);
-      ev.put("Disk", d);
+      if (Dbg.isEnabled(Dbg.BD))
+         Dbg.println(Dbg.BD, "BlockDriver.write(block="+sa.sector_number()+",..)");
+      Dbg.printBytes(Dbg.BD_BYTES, iop.get_bytes(), 0, 64);
+      ev.setDisk(d);
       disk.write(sa, iop, ev);
    }
+
+   private static final Stat.Counter disk_syncs = Stat.counter("disk_syncs");
+
+   /** make everything written to the disk so far durable */
+   void sync() throws Disk.BadDisk {
+      disk.force();
+      disk_syncs.inc();
+   }
    
 }
@@ -7,85 +7,76 @@
  *
  * Copyright (c) 2004-09 University of Texas at Austin
  */
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Iterator;
 
 public abstract class BufferCache {
 
-   /*-------------------------------------------------------------------------*
-    * INNER-CLASS: BufferCacheKey
-    */
-
-	class BufferCacheKey {
-		int block;
-		
-		BufferCacheKey(int block) { this.block = block; }
-		
-		public boolean equals(Object o) {
-			BufferCacheKey key = (BufferCacheKey)o;
-			if (this.block == key.block)
-				return true;
-			else
-				return false;				
-		}
-		
-		public int hashCode() { return block; }
-	}
-	
-   /*-------------------------------------------------------------------------*
-    * INNER-CLASS: BufferCacheValue
-    */
-
-	class BufferCacheValue { 
-		int pageNum;
-		int timestamp;
-		int pid;
-		boolean pin;     // if pin=true, you should not remove it from buffer cache
-		// if io_pending>0, the MemPage of this block is not yet ready.
-		// Value of io_pending is number of processes waiting for this page 
-		int io_pending;
-      
-		BufferCacheValue(int pageNum, int timestamp) {
-			this.pageNum = pageNum;
-			this.timestamp = timestamp;
-			this.pid = sched.getCurrentPID().intValue();
-			this.io_pending = 0;
-		}
-		
-		public boolean equals(Object o) {
-			BufferCacheValue value = (BufferCacheValue)o;
-			if (this.pageNum == value.pageNum && this.timestamp == value.timestamp)
-				return true;
-			else
-				return false;
-		}
-		
-		public int hashCode() { return (pageNum << 16) | (timestamp & 0xffff); }
-   }
-
    /*-------------------------------------------------------------------------*
     * CLASS: BufferCache
+    *
+    * A cache entry lives in the page that holds its data: entry i is
+    * described by element i of the per-page arrays below, and allocTable
+    * maps a block number to its page.  Lookups allocate no key objects.
     */
 
 	protected BlockDriver bd;
-	protected Hashtable allocTable;  // Buffer cache entry (Key, Value pair)
+	protected IntMap allocTable;   // Buffer cache entry (block -> page)
 	private int time;              // internal time used for timestamp
 	private BitSet pageAllocTable; // Memory Page allocation table
 	private MemPage[] pages;       // Part of main memory that is dedicated to Buffer Cache
 	private IScheduler sched;
 
+	// Per page state of the cached block
+	private int[] pageBlock;       // block number cached in each page
+	private int[] timestamp;
+	private int[] pid;
+	private boolean[] pin;         // if pin=true, you should not remove it from buffer cache
+	// if io_pending>0, the MemPage of this block is not yet ready.
+	// Value of io_pending is number of processes waiting for this page 
+	private int[] io_pending;
+	private boolean[] dirty;       // modified since it was read from or written to disk
+	private boolean[] prefetched;  // read ahead of demand and not yet asked for
+
+	private EvictionPolicy policy; // picks the page to give up when full
+	private Stat.Counter policyHit; // for the policy hit rate
+	private Stat.Counter policyMiss;
+	private Histogram readTime;    // of read(), if stat_timing is on
+
+	// Counted on every access, so looked up once
+	protected static final Stat.Counter cacheRead = Stat.counter("cache_read");
+	protected static final Stat.Counter cacheHit = Stat.counter("cache_hit");
+	protected static final Stat.Counter cacheMiss = Stat.counter("cache_miss");
+	private static final Stat.Counter cacheDirtyEvictions = Stat.counter("cache_dirty_evictions");
+	private static final Stat.Counter cacheCleanEvictions = Stat.counter("cache_clean_evictions");
+	private static final Stat.Counter cachePageReplaced = Stat.counter("cache_page_replaced");
+	private static final Stat.Counter prefetchIssued = Stat.counter("prefetch_issued");
+	private static final Stat.Counter prefetchHit = Stat.counter("prefetch_hit");
+	private static final Stat.Counter prefetchMiss = Stat.counter("prefetch_miss");
+
+	public static EvictionPolicy EvictionPolicyFactory(String name, int npages) {
+		if (name == null)
+			name = "lru";
+		name = name.trim().toLowerCase();
+		if (name.equals("lru"))
+			return new LRUPolicy(npages);
+		if (name.equals("clock"))
+			return new ClockPolicy(npages);
+		if (name.equals("2q"))
+			return new TwoQPolicy(npages);
+		if (name.equals("arc"))
+			return new ARCPolicy(npages);
+		System.err.println("Unknown cache_policy " + name + ", using lru");
+		return new LRUPolicy(npages);
+	}
+
 	public static BufferCache BufferCacheFactory(
 		boolean sync, BlockDriver _bd, MemPage[] _pages, IScheduler _sched) {
 		if(sync) 
 			return new BufferCacheSync(_bd, _pages, _sched); 
 		else 
 		{
-			assert false : "No async code in this distribution";
-			// return new BufferCacheAsync(_bd, _pages, _sched);
-         		return null;
+			return new BufferCacheAsync(_bd, _pages, _sched);
 		}
 	}
    
@@ -94,48 +85,95 @@ public abstract class BufferCache {
 		this.pages = _pages;
 		this.sched = _sched;
 		this.time = 0;
-		this.allocTable = new Hashtable();
+		this.allocTable = new IntMap(pages.length);
 		this.pageAllocTable = new BitSet(pages.length);
+		this.pageBlock = new int[pages.length];
+		this.timestamp = new int[pages.length];
+		this.pid = new int[pages.length];
+		this.pin = new boolean[pages.length];
+		this.io_pending = new int[pages.length];
+		this.dirty = new boolean[pages.length];
+		this.prefetched = new boolean[pages.length];
+		this.policy = EvictionPolicyFactory(ProcessTrace.getEnv("cache_policy"),
+		                                    pages.length);
+		this.policyHit = Stat.counter("cache_" + policy.name() + "_hit");
+		this.policyMiss = Stat.counter("cache_" + policy.name() + "_miss");
+		if (ProcessTrace.getEnv("stat_timing").equals("true"))
+			this.readTime = Stat.histogram("cache_read_ns");
 	}
 
-	private void printTable (Hashtable ht) {
-		Enumeration keys = ht.keys();
-		while (keys.hasMoreElements ()) {
-			BufferCacheKey key = (BufferCacheKey) keys.nextElement();
-			BufferCacheValue value = (BufferCacheValue) ht.get(key);
-			System.err.println ("{ " + key.block + ", [" + value.pageNum 
-                             + " " + value.pid
-                             + " " + value.timestamp
-                             + " " + value.pin
+	private void printTable() {
+		for (int i = pageAllocTable.nextSetBit(0); i >= 0;
+		     i = pageAllocTable.nextSetBit(i+1)) {
+			if (allocTable.get(pageBlock[i]) != i)
+				continue;
+			System.err.println ("{ " + pageBlock[i] + ", [" + i 
+                             + " " + pid[i]
+                             + " " + timestamp[i]
+                             + " " + pin[i]
                              + "]}");
 		}
     } 
    /**
     * Write to buffer cache
+    * A block that is cached already is overwritten in its own page,
+    * so rewriting a cached block never evicts anything.
     */
 	public int write(int block, byte[] buf, OSEvent ev) {
 		// write me
 		try
 		{
+			int page = allocTable.get(block);
+			if (page >= 0) {
+				byte[] data = pages[page].get_bytes();
+				if (buf != data) {
+					pages[page].set_bytes(buf);
+					Arrays.fill(data, buf.length, data.length, (byte)0);
+				}
+				return markDirty(block, ev);
+			}
 			// remove a page if necessary
-			int freespot = 0;
-			if(pageAllocTable.cardinality() == pageAllocTable.size())
-				freespot = removeLRU(ev);
-			else
-				freespot = pageAllocTable.nextClearBit(0);
+			int freespot = pageAlloc();
+			if (freespot < 0)
+				freespot = evict();
+			if (freespot < 0)
+				return -1;
 			// write to free page
-			BufferCacheKey key = new BufferCacheKey(block);
-			BufferCacheValue val = new BufferCacheValue(freespot, time);
-			allocTable.put(key, val);
 			pageAllocTable.set(freespot);
+			fill(freespot, block, time);
+			pid[freespot] = ev.pid();
+			dirty[freespot] = true;
 			MemPage mem = new MemPage();
 			mem.set_bytes(buf);
 			pages[freespot] = mem;
+			policy.insert(freespot, block);
+			setEvictable(freespot);
 		}
 		catch (Exception e)
 		{	return -1;	}
 		return 0;
 	}
+
+   /**
+    * Mark a cached block modified after its page has been changed in
+    * place, e.g. through the bytes of the MemPage returned by read().
+    * Nothing is copied and nothing is evicted; the block goes to disk
+    * once, when it is flushed or evicted.
+    *
+    * @param block block number
+    * @param ev event of the writing process
+    * @return 0, on success
+    *        -1, if block is not cached
+    */
+	public int markDirty(int block, OSEvent ev) {
+		int page = allocTable.get(block);
+		if (page < 0)
+			return -1;
+		pid[page] = ev.pid();
+		dirty[page] = true;
+		update(page);
+		return 0;
+	}
    
 
    /**
@@ -146,211 +184,329 @@ public abstract class BufferCache {
     * @return the result page that read block
     *         null, on error
     */
-	public abstract MemPage read(int block, OSEvent ev);
+	public MemPage read(int block, OSEvent ev) {
+		if (readTime == null)
+			return readBlock(block, ev);
+		long start = System.nanoTime();
+		MemPage page = readBlock(block, ev);
+		readTime.record(System.nanoTime() - start);
+		return page;
+	}
+
+	/** read(), without the timing */
+	protected abstract MemPage readBlock(int block, OSEvent ev);
 
 
    /**
     * Flush cache entry to disk
-    * 
+    * Blocks that are not cached or have not been modified are skipped.
     */
 	public void flush(int block, OSEvent ev) throws Exception {
-	      // Write me
-		
-		//p.p("BufferCache.flush(): begin");
-		//p.p("BufferCache.flush(): block = " +block+ ", ev = " +ev);
-		//p.p("BufferCache.flush(): ev = " + ev);
-				BufferCacheKey key = new BufferCacheKey(block);
-				BufferCacheValue val = (BufferCacheValue) allocTable.get(key);
-				//p.p("BufferCache.flush(): key = " +key+ "' val" +val);
-				//first need to find disk and write
-				if( ev.get("DiskAddress") == null ) {
-					ev.put("DiskAddress", new DiskAddress(block));
-				}
-				else {
-					((DiskAddress)ev.get("DiskAddress")).set(block);
-				}
-				//p.p("BufferCache.flush(): allocTable" +allocTable);
-				
-				ev.put("MemPage", pages[val.pageNum]);
-				//p.p("BufferCache.flush(): after ev.put");
-				try
-				{
-					bd.write(ev);
-					//p.p("BufferCache.flush(): successful write to disk");
-				}
-				catch (Exception e)
-				{
-					throw e;
-				}
-				//clear it from the buffercache
-				//int pagenum = val.pageNum;
-				//pages[pagenum] = null;
-				//pageAllocTable.clear(pagenum);
-				//allocTable.remove(key);
-
-			//p.p("BufferCache.flush(): end");
+		int page = allocTable.get(block);
+		if (page < 0 || !dirty[page])
+			return;
+		//first need to find disk and write
+		if( ev.getDiskAddress() == null ) {
+			ev.setDiskAddress(new DiskAddress(block));
+		}
+		else {
+			ev.getDiskAddress().set(block);
+		}
+		ev.setMemPage(pages[page]);
+		bd.write(ev);
+		dirty[page] = false;
 	}
 	
    /**
     * Flush all entries in the buffer cache to disk
+    * Dirty blocks are written in ascending block order.
     */
 	public void flushAll(OSEvent ev) throws Exception{
-
-
-		for(Iterator i = allocTable.keySet().iterator(); i.hasNext();) 
-		{
-	         BufferCacheKey key = (BufferCacheKey)i.next();
+		int[] blocks = new int[allocTable.size()];
+		int n = 0;
+		for (int i = pageAllocTable.nextSetBit(0); i >= 0;
+		     i = pageAllocTable.nextSetBit(i+1)) {
+			if (dirty[i] && allocTable.get(pageBlock[i]) == i)
+				blocks[n++] = pageBlock[i];
+		}
+		Arrays.sort(blocks, 0, n);
+		for (int i = 0; i < n; i++) {
 			// Allocate a fresh event for each block
-			flush(key.block, new OSEvent(ev));
-
+			flush(blocks[i], new OSEvent(ev));
 		}
-		//p.p("BufferCache.flushAll(): method finish");
+	}
 
+   /**
+    * @return the page holding block, -1 if block is not cached
+    */
+	protected int lookupPage(int block) {
+		return allocTable.get(block);
 	}
 	
-	protected MemPage lookup(BufferCacheKey key) {
-
-		BufferCacheValue value = (BufferCacheValue)allocTable.get(key);
-		if (value == null)
+	protected MemPage lookup(int block) {
+		int page = allocTable.get(block);
+		if (page < 0)
 			return null;
 		else
-			return getPage(value.pageNum);
+			return getPage(page);
 	}
 	
-	protected void update(BufferCacheKey key) {
-		BufferCacheValue value = (BufferCacheValue)allocTable.get(key);
-		value.timestamp = this.time++;
+	protected void update(int page) {
+		timestamp[page] = this.time++;
+		policy.touch(page);
 	}
    
-	protected void incrIOPending(BufferCacheKey key) {
-		BufferCacheValue value = (BufferCacheValue)allocTable.get(key);
-		value.io_pending++;
+	protected void incrIOPending(int block) {
+		int page = allocTable.get(block);
+		io_pending[page]++;
+		setEvictable(page);
 	}
    
 	public void decrIOPending(int block) {
-		BufferCacheKey key = new BufferCacheKey(block);
-		BufferCacheValue value = (BufferCacheValue)allocTable.get(key);
-		value.io_pending--;
+		int page = allocTable.get(block);
+		io_pending[page]--;
+		setEvictable(page);
 	}
+
+	protected int getIOPending(int page) { return io_pending[page]; }
+
+   /** @return true if block is cached but its data is still on the way */
+	public boolean isPending(int block) {
+		int page = allocTable.get(block);
+		return page >= 0 && io_pending[page] > 0;
+	}
+
+   /** @return true if some block is on its way in, and so will free a page */
+	public boolean anyPending() {
+		for (int i = 0; i < io_pending.length; i++)
+			if (io_pending[i] > 0)
+				return true;
+		return false;
+	}
+
+   /** @return pid of the process that brought the block in page into the cache */
+	protected int getPid(int page) { return pid[page]; }
+
+   /** record _pid as the process bringing the block in page into the cache */
+	protected void setPid(int page, int _pid) { pid[page] = _pid; }
    
-	protected MemPage alloc(BufferCacheKey key) {
+   /**
+    * Allocate a page for block, evicting a block chosen by the eviction
+    * policy if the cache is full.
+    *
+    * @return the page number allocated, -1 if every page is pinned or busy
+    */
+	protected int allocPage(int block) throws Exception {
 		int pageNum = pageAlloc();
-		if (pageNum < 0)
-			return null;
-		return alloc(key, pageNum);		
+		if (pageNum < 0) {
+			pageNum = evict();
+			if (pageNum < 0)
+				return -1;
+			pageAllocTable.set(pageNum);
+		}
+		alloc(block, pageNum);
+		return pageNum;
 	}
 	
-	protected MemPage alloc(BufferCacheKey key, int pageNum) {
-		allocTable.put(key, new BufferCacheValue(pageNum, time++));
+	protected MemPage alloc(int block, int pageNum) {
+		fill(pageNum, block, time++);
+		if (pages[pageNum] == null)
+			pages[pageNum] = new MemPage();
+		policy.insert(pageNum, block);
 		return getPage(pageNum); 
 	}
-	
-	private void removeEntry(BufferCacheKey key, OSEvent ev) throws Exception {
-		flush(key.block, ev);
-		allocTable.remove(key);
+
+	/** make page the cache entry for block */
+	private void fill(int page, int block, int stamp) {
+		Integer current = sched.getCurrentPID();
+		allocTable.put(block, page);
+		pageBlock[page] = block;
+		timestamp[page] = stamp;
+		pid[page] = (current == null) ? -1 : current.intValue();
+		pin[page] = false;
+		io_pending[page] = 0;
+		dirty[page] = false;
+		prefetched[page] = false;
 	}
 	
    /**
-    * lookup and remove the least frequently used block
+    * remove the block chosen by the eviction policy
     * NOTE! It doesn't deallocate memory from operating system
     * The caller of this method should deallocate or reuse the page
     *  
-    * @return the page number that has been removed from allocTable 
-    * 		//write me
+    * @return the page number that has been removed from allocTable,
+    *         -1 if there is no evictable page
     */
-	protected int removeLRU(OSEvent ev) throws Exception {
-		p.p("### BufferCache.removeLRU(OSEvent ev): ev = "+ev);
-		//finding least recently used block in the buffercache
-		Iterator i = allocTable.keySet().iterator();
-		if(!i.hasNext())
-			return 0;
-		BufferCacheKey key = (BufferCacheKey)i.next();
-		BufferCacheValue val = (BufferCacheValue) allocTable.get(key);
-		int compare = val.timestamp;
-		BufferCacheKey removethis = key;
-		for(i = allocTable.keySet().iterator(); i.hasNext();) 
-		{
-			key = (BufferCacheKey)i.next();
-			val = (BufferCacheValue) allocTable.get(key);
-			if(val.timestamp < compare)
-			{
-				compare = val.timestamp;
-				removethis = key;
-			}
-		}
+	protected int evict() throws Exception {
+		OSEvent ev = createWritebackEvent();
+		p.p("### BufferCache.evict(): ev = "+ev);
+		int pagenum = policy.evict();
+		if (pagenum < 0)
+			return -1;
+		int block = pageBlock[pagenum];
 		
 		//first write to disk, then delete from the buffercache
-		int pagenum = ((BufferCacheValue)allocTable.get(removethis)).pageNum;
-		flush(removethis.block, ev);
-		allocTable.remove(removethis);
+		if (dirty[pagenum])
+			cacheDirtyEvictions.inc();
+		else
+			cacheCleanEvictions.inc();
+		if (prefetched[pagenum])
+			prefetchMiss.inc();
+		flush(block, ev);
+		allocTable.remove(block);
 		pageAllocTable.clear(pagenum);
 		pages[pagenum] = null;
+		cachePageReplaced.inc();
 		return pagenum;
 	}
+
+   /**
+    * Start reading block ahead of demand.  It takes a page the way a miss
+    * does: a free page if there is one, otherwise the policy's victim.
+    *
+    * @param block block number to read
+    * @param ev event for the disk read, with no next_state
+    * @return true, if the read was issued
+    *         false, if block is cached already or no page could be had
+    */
+	public boolean prefetch(int block, OSEvent ev) {
+		if (allocTable.containsKey(block))
+			return false;
+		int pageNum;
+		try {
+			pageNum = allocPage(block);
+		}
+		catch (Exception e) {
+			return false;
+		}
+		if (pageNum < 0)
+			return false;
+		pid[pageNum] = ev.pid();
+		if (!startRead(block, pageNum, ev)) {
+			allocTable.remove(block);
+			policy.remove(pageNum);
+			pageFree(pageNum);
+			return false;
+		}
+		prefetched[pageNum] = true;
+		prefetchIssued.inc();
+		return true;
+	}
+
+   /**
+    * Claim a prefetched block for a demand read
+    *
+    * @return true, if block was brought in by prefetch() and this is
+    *         the first demand for it
+    */
+	public boolean consumePrefetch(int block) {
+		int page = allocTable.get(block);
+		if (page < 0 || !prefetched[page])
+			return false;
+		prefetched[page] = false;
+		prefetchHit.inc();
+		return true;
+	}
+
+   /**
+    * Hand the read of block into pageNum to the block driver
+    *
+    * @return false, if the disk refused the read
+    */
+	protected boolean startRead(int block, int pageNum, OSEvent ev) {
+		if( ev.getDiskAddress() == null ) {
+			ev.setDiskAddress(new DiskAddress(block));
+		}
+		else {
+			ev.getDiskAddress().set(block);
+		}
+		ev.setMemPage(getPage(pageNum));
+		try {
+			this.bd.read(ev);
+		}
+		catch (Exception e) {
+			return false;
+		}
+		return true;
+	}
+
+   /**
+    * Create an event for writing back an evicted block.  It has to be a
+    * disk write interrupt, whatever the request that caused the eviction.
+    */
+	protected OSEvent createWritebackEvent() {
+		OSEvent ev = new OSEvent(OSEvent.INT_DISK_WRITE);
+		ev.setSyscallNumber(OSEvent.NOT_AN_EVENT);
+		return ev;
+	}
+
+	/** pinned blocks and blocks with I/O pending stay in the cache */
+	private void setEvictable(int page) {
+		policy.setEvictable(page, !pin[page] && io_pending[page] == 0);
+	}
+
+	/** count a lookup against the hit rate of the eviction policy */
+	protected void policyStat(boolean hit) {
+		(hit ? policyHit : policyMiss).inc();
+	}
+
+	public EvictionPolicy getPolicy() { return policy; }
    
 	public MemPage readSuperBlock() {
 		//p.p("### BufferCache.readSuperBlock()");
-		BufferCacheKey key = new BufferCacheKey(VFS.BLK_SUPERBLOCK);
-		MemPage page = lookup(key);
+		MemPage page = lookup(VFS.BLK_SUPERBLOCK);
 		if(page != null)
 		{
-			Stat.inc("cache_read");
-      		Stat.inc("cache_hit");
+			cacheRead.inc();
+      		cacheHit.inc();
     		return page;
 		}
 		else
 		{
-			Stat.inc("cache_miss");
+			cacheMiss.inc();
 			//look up in disk?
 			return null;
 		}
 	}
    
 	public MemPage readUsedBlockBitmap() {
-		BufferCacheKey key = new BufferCacheKey(VFS.BLK_USEDBLOCKBITMAP);
-		MemPage page = lookup(key);
-		Stat.inc("cache_read");
-		Stat.inc("cache_hit");
+		MemPage page = lookup(VFS.BLK_USEDBLOCKBITMAP);
+		cacheRead.inc();
+		cacheHit.inc();
 		return page;
 	}
    
 	public MemPage readInodeBitmap(int devNum) {
-		BufferCacheKey key = new BufferCacheKey(VFS.BLK_INODEBITMAP);
 		//we don't have to use input "devNum" in this method
-		MemPage page = lookup(key);
-		Stat.inc("cache_read");
-		Stat.inc("cache_hit");
+		MemPage page = lookup(VFS.BLK_INODEBITMAP);
+		cacheRead.inc();
+		cacheHit.inc();
 		return page;
 	}
 
 	public MemPage readDirInode(int devNum) {
-		BufferCacheKey key = new BufferCacheKey(VFS.BLK_DIRINODE);
 		//we don't have to use input "devNum" in this method
-		MemPage page = lookup(key);
-		Stat.inc("cache_read");
-		Stat.inc("cache_hit");
+		MemPage page = lookup(VFS.BLK_DIRINODE);
+		cacheRead.inc();
+		cacheHit.inc();
 		return page;
 	}
    
-	public MemPage readDirDataBlock(int devNum) {
-		BufferCacheKey key = new BufferCacheKey(VFS.BLK_DIRDATABLOCK);
-		//we don't have to use input "devNum" in this method
-		MemPage page = lookup(key);
-		Stat.inc("cache_read");
+	/** @param block a directory block, BLK_DIRDATABLOCK or one chained after it */
+	public MemPage readDirDataBlock(int block) {
+		MemPage page = lookup(block);
+		cacheRead.inc();
 		if(page != null)
 		{
-			Stat.inc("cache_hit");
+			cacheHit.inc();
 		}
 		return page;
 	}
    
 	public void setPin(int block, boolean pin) {
-		//p.p("### BufferCache.setPin(int block, boolean pin): block = "+block+" and pin = "+pin);
-		BufferCacheKey key = new BufferCacheKey(block);
-		//p.p("### BufferCache.setPin(...) key = "+key);
-		BufferCacheValue value = (BufferCacheValue)allocTable.get(key);
-		//p.p("### BufferCache.setPin(...) value = "+value);
-		value.pin = pin;
+		int page = allocTable.get(block);
+		this.pin[page] = pin;
+		setEvictable(page);
 	}
 
 
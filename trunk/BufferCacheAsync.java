@@ -0,0 +1,101 @@
+/**
+ * class BufferCacheAsync
+ *
+ * A memory cache for disk blocks.  This buffer cache assumes an
+ * asynchronous interface to the disk: a miss starts the disk read and
+ * returns right away, and the VFS finishes the request when the disk
+ * interrupt comes back through OS.interrupt.
+ * 
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+public class BufferCacheAsync extends BufferCache {
+
+   protected BufferCacheAsync(BlockDriver _bd, 
+				MemPage[] _pages, 
+				IScheduler _sched) {
+		super(_bd, _pages, _sched);
+   }
+
+   
+  /**
+    * Read from buffer cache asynchronously
+    * if cache miss, start reading from disk
+    *
+    * On a miss the page is allocated with io_pending set and ev is handed
+    * to the disk; the caller gets ev back through its callback once the
+    * data is in memory, and should then call readComplete().  If the
+    * block is already on its way in for another request, ev is queued
+    * behind that read as a NoDiskRead event instead.
+    * 
+    * @param block block number to read
+    * @param ev event object, must carry the caller's next_state
+    * @return the result page that read block,
+    *         null, if the caller has to wait (isPending(block) is true)
+    *         or on error
+    */
+   	protected MemPage readBlock(int block, OSEvent ev){
+			cacheRead.inc();
+			int pageNum = lookupPage(block);
+			if (pageNum >= 0 && getIOPending(pageNum) == 0) {
+				cacheHit.inc();
+				policyStat(true);
+				update(pageNum);
+				MemPage page = getPage(pageNum);
+				ReadCheck.write(getPid(pageNum), page.get_bytes());
+				return page;
+			}
+			if (pageNum >= 0) {
+				// Someone else already started the disk read
+				cacheHit.inc();
+				policyStat(true);
+				ev.setNoDiskRead(true);
+			}
+			else {
+				cacheMiss.inc();
+				policyStat(false);
+				try {
+					pageNum = allocPage(block);
+				}
+				catch (Exception e) {
+					return null;
+				}
+				if (pageNum < 0)
+					return null;
+				// The process that started the read is blocked, not current
+				setPid(pageNum, ev.pid());
+			}
+			startRead(block, pageNum, ev);
+			return null;
+   	}
+
+  /**
+    * The page stays busy (io_pending) until OS.interrupt reports the
+    * read done through VFS.pageComplete.
+    */
+   	protected boolean startRead(int block, int pageNum, OSEvent ev) {
+			incrIOPending(block);
+			if (super.startRead(block, pageNum, ev))
+				return true;
+			decrIOPending(block);
+			return false;
+   	}
+
+  /**
+    * Finish a read started by read(), called from the VFS callback after
+    * OS.interrupt has brought the data in and cleared io_pending.
+    *
+    * @param block block number that was read
+    * @param ev the event returned by the disk
+    * @return the page holding block
+    */
+   	public MemPage readComplete(int block, OSEvent ev) {
+			int pageNum = lookupPage(block);
+			if (pageNum < 0)
+				return null;
+			update(pageNum);
+			MemPage page = getPage(pageNum);
+			ReadCheck.write(getPid(pageNum), page.get_bytes());
+			return page;
+   	}
+}
@@ -28,35 +28,32 @@ public class BufferCacheSync extends BufferCache {
     * @return the result page that read block
     *         null, on error
     */
-   	public MemPage read(int block, OSEvent ev){
-			// Write me
+   	protected MemPage readBlock(int block, OSEvent ev){
 			MemPage page = null;
-			Stat.inc("cache_read");
-   		BufferCacheKey key = new BufferCacheKey(block);
-			if(allocTable.containsKey(key)){
-				Stat.inc("cache_hit");
-				update(key);
-				page = lookup(key);
+			cacheRead.inc();
+			int pageNum = lookupPage(block);
+			if(pageNum >= 0){
+				cacheHit.inc();
+				policyStat(true);
+				update(pageNum);
+				page = getPage(pageNum);
 			}
 			else{
-				Stat.inc("cache_miss");
-				page = alloc(key);
-				if( ev.get("DiskAddress") == null ) {
-					ev.put("DiskAddress", new DiskAddress(block));
-				}
-				else {
-					((DiskAddress)ev.get("DiskAddress")).set(block);
-				} 		
-				ev.put("MemPage", page);
+				cacheMiss.inc();
+				policyStat(false);
 				try {
-					this.bd.read(ev);
-					page = (MemPage)ev.get("MemPage");
+					pageNum = allocPage(block);
 				}
 				catch (Exception e) {
 					return null;
 				}
+				if (pageNum < 0)
+					return null;
+				if (!startRead(block, pageNum, ev))
+					return null;
+				page = getPage(pageNum);
 			}
-   		ReadCheck.write(((BufferCacheValue)allocTable.get(key)).pid, page.get_bytes()); 
+   		ReadCheck.write(getPid(pageNum), page.get_bytes()); 
      	return page;
    	}
 
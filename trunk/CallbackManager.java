@@ -11,18 +11,16 @@
  *
  * Copyright (c) 2004-09 University of Texas at Austin
  */
-import java.util.TreeSet;
-
 public class CallbackManager {
 
    // Time in these events is specified as ticks in the future.
    static public void schedule_event(OSEvent ev) {
    	  if(events == null) {
-         events = new TreeSet();
+         events = new EventHeap();
       }
-      ev.set_sched_time(now);
-      ev.set_time(ev.time() + now);
-      boolean result = events.add(ev);
+      ev.set_sched_time(now, SCHED);
+      ev.set_time(ev.time() + now, TIME);
+      events.add(ev);
       // If we schedule multiple events in the same click, have
       // them complete in the order in which they are scheduled.
       now++;
@@ -30,16 +28,19 @@ public class CallbackManager {
    
    static boolean isEmpty() { 
       if(events == null) {
-         events = new TreeSet();
+         events = new EventHeap();
       }
       return events.isEmpty(); 
    }
-   static OSEvent first() { return (OSEvent)events.first();}
+   static OSEvent first() { return events.first();}
    static void remove(OSEvent ev) { events.remove(ev); }
    // Let ProcessTrace tell us what time it is
    static void set_now(int _now) { now = _now;}
    static int get_now() {return now;}  
-   // Outstanding events
-   static private TreeSet events;
+   // Access control keys, see OSEvent
+   static private final OSEvent.SchedKey SCHED = OSEvent.grantSchedKey();
+   static private final OSEvent.TimeKey TIME = OSEvent.grantTimeKey();
+   // Outstanding events, earliest first
+   static private EventHeap events;
    static private int now;
 }
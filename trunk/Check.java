@@ -0,0 +1,240 @@
+/**
+ * class Check
+ *
+ * Self-checks of the simulator.  Run it from a directory that holds a
+ * system.properties and the sample traces.
+ *
+ *   java Check async
+ *      run each sample trace with sync and with async disks at
+ *      mem_percentage 20, each in its own JVM and scratch directory,
+ *      and check that the runs print nothing to stderr and leave the
+ *      same disk image, read check file and disk read/write counts
+ *
+ *   java Check directory
+ *      fill a directory block, remove names from it and add others,
+ *      and check that adds take the lowest free slot and turn away a
+ *      name already in the block, and that a Directory over the block
+ *      keeps its index of names in step with the block's
+ *
+ *   java Check intmap
+ *      fill an IntMap past the point where it grows, remove keys from
+ *      it, and check that negative keys are turned away rather than
+ *      taken for empty slots
+ *
+ * Each failure is printed, and the exit status is 1 if there were any.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+public class Check {
+
+   static String[] traces = { "simple0.tr", "simple1.tr", "simple2.tr" };
+   static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      String mode = (args.length > 0) ? args[0] : "";
+      if (mode.equals("async")) {
+         async();
+      } else if (mode.equals("directory")) {
+         directory();
+      } else if (mode.equals("intmap")) {
+         intmap();
+      } else {
+         System.out.println("Usage: java Check async|directory|intmap");
+         System.exit(-1);
+      }
+      System.out.println(failures == 0 ? "ok" : failures + " failed");
+      System.exit(failures == 0 ? 0 : 1);
+   }
+
+   /** async disks at low memory must do what sync disks do */
+   static void async() throws Exception {
+      for (int i = 0; i < traces.length; i++) {
+         File sync = run(traces[i], true, 20);
+         File async = run(traces[i], false, 20);
+         String what = traces[i] + " at mem_percentage 20: ";
+         check(what + "sync stderr empty", new File(sync, "err").length() == 0);
+         check(what + "async stderr empty", new File(async, "err").length() == 0);
+         check(what + "disk image", same(sync, async, "test_disk"));
+         check(what + "read check file", same(sync, async, "rc"));
+         String counts = counts(sync);
+         check(what + "disk reads and writes " + counts,
+               counts != null && counts.equals(counts(async)));
+      }
+   }
+
+   /** adds to a directory block go to its lowest free slot */
+   static void directory() {
+      DirectoryBlock db = new DirectoryBlock();
+      int n = db.getDentries().length;
+      for (int i = 0; i < n; i++)
+         check("add f" + i, db.addDentry(new Dentry("f" + i, i + 1)));
+      check("full block turns away g", !db.addDentry(new Dentry("g", n + 1)));
+      check("full block has no room", !db.isAvailable());
+
+      // Free a high slot and then a low one; the low one is used first
+      check("remove f7", db.findRemove("f7"));
+      check("remove f2", db.findRemove("f2"));
+      check("remove f2 twice", !db.findRemove("f2"));
+      check("room after removes", db.isAvailable());
+      check("add of f9, after the free slots, turned away", !db.addDentry(new Dentry("f9", n + 1)));
+      check("add a", db.addDentry(new Dentry("a", n + 2)));
+      check("a in slot 2", slot(db, "a") == 2);
+      check("add of a again turned away", !db.addDentry(new Dentry("a", n + 3)));
+      check("add b", db.addDentry(new Dentry("b", n + 4)));
+      check("b in slot 7", slot(db, "b") == 7);
+      check("full again", !db.isAvailable());
+      check("f7 gone", db.lookupByName("f7") == null);
+      check("f8 found", db.lookupByName("f8") != null
+            && db.lookupByName("f8").getIno() == 9);
+
+      // The same after a trip through the bytes on disk
+      db.findRemove("f5");
+      db.findRemove("f1");
+      DirectoryBlock copy = new DirectoryBlock(db.getBytes());
+      check("add c after reload", copy.addDentry(new Dentry("c", n + 5)));
+      check("c in slot 1", slot(copy, "c") == 1);
+      check("add of b after reload turned away",
+            !copy.addDentry(new Dentry("b", n + 6)));
+      check("add d after reload", copy.addDentry(new Dentry("d", n + 7)));
+      check("d in slot 5", slot(copy, "d") == 5);
+
+      // A free slot that still holds a name, as one with ino 0 does;
+      // the Directory must forget the name when the slot is reused
+      DirectoryBlock held = new DirectoryBlock();
+      held.addDentry(new Dentry("ghost", 0));
+      Directory dir = new Directory();
+      dir.add(VFS.BLK_DIRDATABLOCK, held);
+      check("add x over ghost", dir.addDentry(new Dentry("x", 5)));
+      check("x in slot 0", slot(held, "x") == 0);
+      check("ghost gone", dir.lookupByName("ghost") == null);
+      check("add ghost again", dir.addDentry(new Dentry("ghost", 6)));
+      check("ghost in slot 1", slot(held, "ghost") == 1);
+   }
+
+   /** IntMap keeps what it is given, and refuses keys it cannot keep */
+   static void intmap() {
+      IntMap map = new IntMap(4);
+      for (int k = 0; k < 100; k++)
+         map.put(k * 7, k);
+      for (int k = 0; k < 100; k += 2)
+         check("remove " + (k * 7), map.remove(k * 7) == k);
+      boolean ok = map.size() == 50;
+      for (int k = 0; k < 100; k++)
+         ok &= map.get(k * 7) == ((k % 2 == 0) ? IntMap.NONE : k);
+      check("50 odd keys left", ok);
+
+      check("get -1 finds nothing", map.get(-1) == IntMap.NONE);
+      check("put -1 turned away", throwsIllegalArgument(map, true, -1));
+      check("remove -1 turned away", throwsIllegalArgument(map, false, -1));
+      check("remove -5 turned away", throwsIllegalArgument(map, false, -5));
+      check("size still 50", map.size() == 50);
+      check("7 still there", map.get(7) == 1);
+   }
+
+   static boolean throwsIllegalArgument(IntMap map, boolean put, int key) {
+      try {
+         if (put)
+            map.put(key, 0);
+         else
+            map.remove(key);
+         return false;
+      }
+      catch (IllegalArgumentException e) {
+         return true;
+      }
+   }
+
+   /** @return the slot of name in db, or -1 */
+   static int slot(DirectoryBlock db, String name) {
+      Dentry d = db.lookupByName(name);
+      Dentry[] dentries = db.getDentries();
+      for (int i = 0; i < dentries.length; i++)
+         if (dentries[i] == d) return i;
+      return -1;
+   }
+
+   /**
+    * Format a disk and run the simulator over trace in a scratch
+    * directory of its own, with the properties of this one but for
+    * sync_disks and mem_percentage.
+    * @return the directory
+    */
+   static File run(String trace, boolean sync, int mem) throws Exception {
+      File dir = new File("check." + trace + "." + (sync ? "sync" : "async") + "." + mem);
+      dir.mkdir();
+      Properties props = new Properties();
+      FileInputStream in = new FileInputStream("system.properties");
+      props.load(in);
+      in.close();
+      props.setProperty("trace_file", trace);
+      props.setProperty("sync_disks", String.valueOf(sync));
+      props.setProperty("mem_percentage", String.valueOf(mem));
+      props.setProperty("disk_file", "test_disk");
+      props.setProperty("read_check", "rc");
+      FileOutputStream out = new FileOutputStream(new File(dir, "system.properties"));
+      props.store(out, null);
+      out.close();
+      Files.copy(new File(trace).toPath(), new File(dir, trace).toPath(),
+                 StandardCopyOption.REPLACE_EXISTING);
+      exec(dir, "Mkfs", new String[] { "test_disk", "128k" });
+      exec(dir, "ProcessTrace", new String[0]);
+      return dir;
+   }
+
+   /** run main of cls in dir in a new JVM, its output to dir/out and dir/err */
+   static void exec(File dir, String cls, String[] args) throws Exception {
+      String[] path = System.getProperty("java.class.path").split(File.pathSeparator);
+      StringBuffer cp = new StringBuffer();
+      for (int i = 0; i < path.length; i++) {
+         if (i > 0) cp.append(File.pathSeparator);
+         cp.append(new File(path[i]).getAbsolutePath());
+      }
+      String[] cmd = new String[4 + args.length];
+      cmd[0] = new File(System.getProperty("java.home"), "bin/java").getPath();
+      cmd[1] = "-cp";
+      cmd[2] = cp.toString();
+      cmd[3] = cls;
+      System.arraycopy(args, 0, cmd, 4, args.length);
+      ProcessBuilder pb = new ProcessBuilder(cmd);
+      pb.directory(dir);
+      pb.redirectOutput(new File(dir, "out"));
+      pb.redirectError(new File(dir, "err"));
+      pb.start().waitFor();
+   }
+
+   static boolean same(File a, File b, String name) throws IOException {
+      return Arrays.equals(Files.readAllBytes(new File(a, name).toPath()),
+                           Files.readAllBytes(new File(b, name).toPath()));
+   }
+
+   /** @return the disk read/write counts the run reported, or null */
+   static String counts(File dir) throws IOException {
+      BufferedReader r = new BufferedReader(new FileReader(new File(dir, "out")));
+      try {
+         String line;
+         while ((line = r.readLine()) != null)
+            if (line.startsWith("Number of disk (reads)(writes):"))
+               return line.substring(line.indexOf(':') + 1).trim();
+         return null;
+      }
+      finally {
+         r.close();
+      }
+   }
+
+   static void check(String what, boolean ok) {
+      if (!ok) failures++;
+      System.out.println((ok ? "ok   " : "FAIL ") + what);
+   }
+}
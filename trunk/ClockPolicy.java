@@ -0,0 +1,64 @@
+/**
+ * class ClockPolicy
+ *
+ * Second chance (CLOCK) replacement.  Every page has a reference bit
+ * that is set when it is used; the clock hand sweeps over the pages,
+ * clearing reference bits, and evicts the first page whose bit is
+ * already clear.  A reference costs a single store.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+public class ClockPolicy implements EvictionPolicy {
+   private boolean[] resident;
+   private boolean[] referenced;
+   private boolean[] held;
+   private int hand;
+
+   public ClockPolicy(int npages) {
+      resident = new boolean[npages];
+      referenced = new boolean[npages];
+      held = new boolean[npages];
+      hand = 0;
+   }
+
+   public String name() {
+      return "clock";
+   }
+
+   public void insert(int page, int block) {
+      resident[page] = true;
+      referenced[page] = true;
+      held[page] = false;
+   }
+
+   public void touch(int page) {
+      referenced[page] = true;
+   }
+
+   public void remove(int page) {
+      resident[page] = false;
+      held[page] = false;
+   }
+
+   public void setEvictable(int page, boolean evictable) {
+      held[page] = !evictable;
+   }
+
+   public int evict() {
+      // Two sweeps are enough: the first one clears every reference bit
+      for (int i = 0; i < 2 * resident.length; i++) {
+         int page = hand;
+         hand = (hand + 1) % resident.length;
+         if (!resident[page] || held[page])
+            continue;
+         if (referenced[page]) {
+            referenced[page] = false;
+         } else {
+            resident[page] = false;
+            return page;
+         }
+      }
+      return -1;
+   }
+}
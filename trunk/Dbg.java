@@ -13,13 +13,54 @@ import java.util.HashSet;
 
 public class Dbg {
 	
-   static HashSet labels = new HashSet();
+   static HashSet<String> labels = new HashSet<String>();
+
+   // One bit for each label, so checking one is a single test of mask.
+   // Build the message only inside if (Dbg.isEnabled(...)), so a
+   // disabled label costs that one branch.
+   static final int BD = 1;          // "bd"
+   static final int BD_BYTES = 2;    // "bdB"
+   static final int BC = 4;          // "bc"
+   static final int BC_BYTES = 8;    // "bcB"
+   static final int PT = 16;         // "pt"
+   static final int OS = 32;         // "os"
+   static final int VFS = 64;        // "vfs"
+   static final int SC = 128;        // "sc"
+   private static final String[] names = {
+      "bd", "bdB", "bc", "bcB", "pt", "os", "vfs", "sc"
+   };
+   private static int mask = maskOf(labels);
 	
    // Lables include "bd", "bc", "pt", "os", "vfs", "sc"
    // This is called from OS.OS
    public static void addLabel(String label) {
-      if(labels == null) labels = new HashSet();
+      if(labels == null) labels = new HashSet<String>();
       labels.add(label);
+      mask = maskOf(labels);
+   }
+
+   private static int maskOf(HashSet<String> set) {
+      int m = 0;
+      for (int i = 0; i < names.length; i++) {
+         if (set.contains(names[i])) m |= 1 << i;
+      }
+      return m;
+   }
+
+   public static boolean isEnabled(int label) {
+      return (mask & label) != 0;
+   }
+
+   public static void println(int label, String msg) {
+      if ((mask & label) != 0) {
+         System.out.println(msg);
+      }
+   }
+
+   public static void printBytes(int label, byte[] buffer, int offset, int size) {
+      if ((mask & label) != 0) {
+         dump(buffer, offset, size);
+      }
    }
 	
    
@@ -33,12 +74,8 @@ public class Dbg {
       return str;
    }
 	
-   public static void printBytes(String label, byte[] buffer) {
-      printBytes(label, buffer, 0, buffer.length);
-   }
-	
-   public static void printBytes(String label, byte[] buffer, int offset, int size) {
-      if(!labels.contains(label)) return;
+   /** hex dump of buffer, 32 bytes a line from a multiple of 32 */
+   private static void dump(byte[] buffer, int offset, int size) {
       String line = "";
       size = size + offset % 32;
       offset = offset - offset % 32;
@@ -54,12 +91,6 @@ public class Dbg {
       }
    }
 	
-   public static void println(String label, String msg) {
-      if (labels.contains(label)) {
-         System.out.println(msg);
-      }
-   }
-   
    public static void ASSERT(boolean bool) {
       if (!bool) {
          (new Exception()).printStackTrace();
@@ -0,0 +1,132 @@
+/**
+ * class Directory
+ *
+ * In-memory representation of the root directory, which is a chain of
+ * directory blocks starting at VFS.BLK_DIRDATABLOCK.  A block is
+ * chained on when every slot in the ones before it is taken, so the
+ * directory is not limited to one block of dentries.
+ *
+ * A map from each file name to the block that holds it keeps lookups
+ * from going through the blocks in turn, and the blocks with a free
+ * slot are kept in a BitSet, so a new dentry goes in the first of them
+ * as it would with a scan.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+public class Directory {
+   // DirectoryBlocks in chain order, and their block numbers
+   private ArrayList<DirectoryBlock> blocks = new ArrayList<DirectoryBlock>();
+   private ArrayList<Integer> blockNums = new ArrayList<Integer>();
+   // File name -> index into blocks
+   private HashMap<String,Integer> index = new HashMap<String,Integer>();
+   // Blocks with a free slot
+   private BitSet hasFree = new BitSet();
+   // Blocks changed since clean()
+   private BitSet dirty = new BitSet();
+
+   /**
+    * Add the next block of the chain, as read from the disk
+    *
+    * @param blockNum block number of db
+    * @param db the block
+    */
+   public void add(int blockNum, DirectoryBlock db) {
+      int i = blocks.size();
+      blocks.add(db);
+      blockNums.add(Integer.valueOf(blockNum));
+      Dentry[] dentries = db.getDentries();
+      for (int j = 0; j < dentries.length; j++) {
+         String name = dentries[j].getFileName();
+         if (name != null && name.length() > 0 && !index.containsKey(name))
+            index.put(name, Integer.valueOf(i));
+      }
+      if (db.isAvailable())
+         hasFree.set(i);
+   }
+
+   /**
+    * Chain an empty block on the end
+    *
+    * @param blockNum a free block for it
+    */
+   public void grow(int blockNum) {
+      int last = blocks.size() - 1;
+      if (last >= 0) {
+         block(last).setNext(blockNum);
+         dirty.set(last);
+      }
+      add(blockNum, new DirectoryBlock());
+      dirty.set(last + 1);
+   }
+
+   public Dentry lookupByName(String fileName) {
+      Integer i = index.get(fileName);
+      return (i == null) ? null : block(i.intValue()).lookupByName(fileName);
+   }
+
+   public boolean isAvailable() {
+      return !hasFree.isEmpty();
+   }
+
+   public boolean addDentry(Dentry dentry) {
+      int i = hasFree.nextSetBit(0);
+      if (i < 0 || index.containsKey(dentry.getFileName()))
+         return false;
+      DirectoryBlock db = block(i);
+      Dentry old = db.nextFree();
+      if (!db.addDentry(dentry))
+         return false;
+      // A free slot can still hold a name, if its ino is 0
+      String name = old.getFileName();
+      if (name != null && db.lookupByName(name) == null)
+         unindex(name, i);
+      index.put(dentry.getFileName(), Integer.valueOf(i));
+      dirty.set(i);
+      if (!db.isAvailable())
+         hasFree.clear(i);
+      return true;
+   }
+
+   public boolean findRemove(String fileName) {
+      Integer i = index.remove(fileName);
+      if (i == null)
+         return false;
+      block(i.intValue()).findRemove(fileName);
+      dirty.set(i.intValue());
+      hasFree.set(i.intValue());
+      return true;
+   }
+
+   /** drop name from the index if it is there for block i */
+   private void unindex(String name, int i) {
+      Integer at = index.get(name);
+      if (at != null && at.intValue() == i)
+         index.remove(name);
+   }
+
+   public int numBlocks() {
+      return blocks.size();
+   }
+
+   public DirectoryBlock block(int i) {
+      return blocks.get(i);
+   }
+
+   public int blockNum(int i) {
+      return blockNums.get(i).intValue();
+   }
+
+   /** @return true if block i has changed since clean() */
+   public boolean isDirty(int i) {
+      return dirty.get(i);
+   }
+
+   /** note that the changed blocks have been written out */
+   public void clean() {
+      dirty.clear();
+   }
+}
@@ -2,21 +2,43 @@
  * class DirectoryBlock
  *
  * In-memory representation of a directory data block
+ *
+ * Besides the dentries it keeps a map from each file name to its slot
+ * and a set of the free slots, so lookups and adds do not scan the
+ * block.  An add takes the lowest free slot, as a scan would.  A slot
+ * is free when its ino is 0, as on disk.  The dentries from
+ * getDentries() are for reading only, as a change made through them
+ * would not reach the index.
+ *
+ * The dentries leave the end of the block spare, and its last int is
+ * the number of the next block of the directory, 0 for none.
  * 
  * @author Jungwoo Ha, Emmett Witchel
  *
  * Copyright (c) 2004-09 University of Texas at Austin
  */
 import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
 
 public class DirectoryBlock {
    Dentry [] dentries;
+   // File name -> slot of its dentry
+   private HashMap<String,Integer> index = new HashMap<String,Integer>();
+   // Free slots
+   private BitSet freeSlots = new BitSet();
+   // Next block of the directory, 0 if this is the last
+   private int next;
+
+   // Where next is kept in the block
+   private static final int NEXT_OFFSET = Disk.BYTES_PER_SECTOR - 4;
 	
    public DirectoryBlock() {
       dentries = new Dentry[Disk.BYTES_PER_SECTOR/Dentry.DENTRY_SIZE];
       for (int i = 0; i < dentries.length; i++) {
          dentries[i] = new Dentry();
       }
+      buildIndex();
    }
    
    public DirectoryBlock(byte[] block) {
@@ -35,6 +57,8 @@ public class DirectoryBlock {
             e.printStackTrace();
          }
       }
+      next = ByteBuffer.wrap(block).getInt(NEXT_OFFSET);
+      buildIndex();
    }
 	
    public byte[] getBytes() {
@@ -42,49 +66,82 @@ public class DirectoryBlock {
       for (int i = 0; i < dentries.length; i++) {
          buffer.put(dentries[i].getBytes());
       }			
+      buffer.putInt(NEXT_OFFSET, next);
       return buffer.array();
    }
+
+   public int getNext() {
+      return next;
+   }
+
+   public void setNext(int block) {
+      next = block;
+   }
 	
    public boolean findRemove(String fileName) {
-      for (int i = 0; i < dentries.length; i++) {
-         if (dentries[i].getFileName().equals(fileName)) {
-            dentries[i] = new Dentry();
-            return true;
-         }
-      }
-      return false;
+      Integer slot = index.remove(fileName);
+      if (slot == null)
+         return false;
+      int i = slot.intValue();
+      freeSlots.set(i);
+      dentries[i] = new Dentry();
+      return true;
    }
 	
    public boolean addDentry(Dentry dentry) {
-      for (int i = 0; i < dentries.length; i++) {
-         if (dentries[i].getIno() == 0) {
-            dentries[i] = dentry;
-            return true;
-         }
-         else if (dentries[i].getFileName().equals(dentry.getFileName())) {
-            return false;
-         }
-      }
-      return false;		
+      // The lowest free slot, unless the name is in use in the block
+      int i = freeSlots.nextSetBit(0);
+      if (i < 0)
+         return false;
+      int at = slotOf(dentry.getFileName());
+      if (at >= 0 && dentries[at].getIno() != 0)
+         return false;
+      // A free slot can still hold a name, if its ino is 0
+      String old = dentries[i].getFileName();
+      if (old != null && slotOf(old) == i)
+         index.remove(old);
+      dentries[i] = dentry;
+      index.put(dentry.getFileName(), Integer.valueOf(i));
+      if (dentry.getIno() != 0)
+         freeSlots.clear(i);
+      return true;
    }
    
+   /** @return the dentry the next addDentry would replace, or null if none is free */
+   public Dentry nextFree() {
+      int i = freeSlots.nextSetBit(0);
+      return (i < 0) ? null : dentries[i];
+   }
+
    public Dentry lookupByName(String fileName) {
-      for (int i = 0; i < dentries.length; i++) {
-         if (dentries[i].getFileName().equals(fileName))
-            return dentries[i];
-      }
-      return null;
+      int i = slotOf(fileName);
+      return (i < 0) ? null : dentries[i];
    }
    
    public boolean isAvailable() {
-      for (int i = 0; i < dentries.length; i++) {
-         if (dentries[i].getIno() == 0)
-            return true;
-      }
-      return false;
+      return !freeSlots.isEmpty();
    }
 
    public Dentry [] getDentries() {
       return dentries;
    }
+
+   /** @return the slot of fileName, or -1 */
+   private int slotOf(String fileName) {
+      Integer slot = index.get(fileName);
+      return (slot == null) ? -1 : slot.intValue();
+   }
+
+   /** index the names and free slots of dentries, the first of a name wins */
+   private void buildIndex() {
+      index.clear();
+      freeSlots.clear();
+      for (int i = dentries.length - 1; i >= 0; i--) {
+         String name = dentries[i].getFileName();
+         if (name != null && name.length() > 0)
+            index.put(name, Integer.valueOf(i));
+         if (dentries[i].getIno() == 0)
+            freeSlots.set(i);
+      }
+   }
 }
@@ -17,6 +17,9 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Random;
 
 public class Disk {
@@ -40,11 +43,36 @@ public class Disk {
       private byte data[];
    };
 
+   /* How sectors move between the disk file and memory pages */
+   // seek, then read into a fresh array and copy it into the page
+   public static final int BACKEND_RAF = 0;
+   // positional FileChannel I/O straight into the page
+   public static final int BACKEND_CHANNEL = 1;
+   // the file is mapped into memory; a transfer is a memory copy
+   public static final int BACKEND_MMAP = 2;
+   // bytes per mapped segment, a multiple of the sector size
+   static final long SEGMENT_BYTES = 1L << 30;
+
+   static int backendByName(String name) {
+      if (name == null || name.trim().equalsIgnoreCase("raf"))
+         return BACKEND_RAF;
+      if (name.trim().equalsIgnoreCase("channel"))
+         return BACKEND_CHANNEL;
+      if (name.trim().equalsIgnoreCase("mmap"))
+         return BACKEND_MMAP;
+      System.err.println("Unknown disk_backend " + name + ", using raf");
+      return BACKEND_RAF;
+   }
+
    Disk(String file_name, boolean _sync, float prob_of_failure) 
+      throws BadDisk {
+      this(file_name, _sync, prob_of_failure, BACKEND_RAF);
+   }
+
+   Disk(String file_name, boolean _sync, float prob_of_failure, int _backend) 
       throws BadDisk {
       file = new File(file_name);
-      if(BYTES_PER_SECTOR * (int)(file.length() / BYTES_PER_SECTOR)
-         != file.length()) {
+      if(file.length() % BYTES_PER_SECTOR != 0) {
          throw new BadDisk(EDISK_BAD_INITIALIZATION,
                            "Cannot open file " + file_name
                            + " as a disc device\nThe file is "
@@ -57,12 +85,25 @@ public class Disk {
          throw new BadDisk(EDISK_BAD_INITIALIZATION,
                            "Disk model does not accept zero length files.\n" + file_name + " is zero length");
       }
-      if(file.length() > (long)1<<31) {
+      if(file.length() / BYTES_PER_SECTOR > Integer.MAX_VALUE) {
          throw new BadDisk(EDISK_BAD_INITIALIZATION,
-                           "Disk model does not accept files larger than 2GB");
+                           "Cannot open file " + file_name
+                           + " as a disc device\nThe file has "
+                           + file.length() / BYTES_PER_SECTOR
+                           + " sectors, more than the disk model can number");
       }
       try {
          raf = new RandomAccessFile(file, "rw");
+         channel = raf.getChannel();
+         if (_backend == BACKEND_MMAP) {
+            long len = file.length();
+            segments = new MappedByteBuffer[(int)((len + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < segments.length; i++) {
+               long start = i * SEGMENT_BYTES;
+               segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+                                         Math.min(SEGMENT_BYTES, len - start));
+            }
+         }
       }
       catch(IOException e) {
          throw new BadDisk(EDISK_BAD_INITIALIZATION,
@@ -72,8 +113,11 @@ public class Disk {
       rand = new Random(1234321);
       fail_prob = prob_of_failure;
       sync = _sync;
+      backend = _backend;
       disk_failed = false;
       head = 0;
+      if (ProcessTrace.getEnv("stat_timing").equals("true"))
+         op_time = Stat.histogram("disk_op_ns");
    }
    // Return codes
    final int DISK_OK = 0;
@@ -84,29 +128,34 @@ public class Disk {
    final int EDISK_BAD_INITIALIZATION = -3;
    final int EDISK_BOUNDS = -4;
 
-   void data_read(DiskAddress sa, MemPage iop) throws BadDisk {
+   void data_read(DiskAddress sa, MemPage iop, Key key) throws BadDisk {
 		p.p("DISK READ");
-      // Check the class of our caller do to access control
-      Throwable t = new Throwable();
-      StackTraceElement[] ste = t.getStackTrace();
-      String cname = ste[1].getClassName();
-      if(!cname.equals("Disk")
-         && !cname.equals("OS")) {
-         System.err.println(cname + ", a class other than OS or Disk called Disk.data_read.\nThis is not allowed");
-         t.printStackTrace();
+      // Only holders of a Key may move data (access control, see OSEvent)
+      if(key == null) {
+         System.err.println("Disk.data_read called without a disk key; only OS and Disk have one.\nThis is not allowed");
+         new Throwable().printStackTrace();
       }
 
       check_fail(sa);
+      long start = (op_time != null) ? System.nanoTime() : 0;
       try {
-         raf.seek(sa.sector_number() * Disk.BYTES_PER_SECTOR); // modified by habals
-         byte bytes[] = new byte[BYTES_PER_SECTOR];
-         raf.read(bytes);
-         iop.write(bytes, 0, BYTES_PER_SECTOR);
-
-         Stat.add("disk_sectors_travelled", Math.abs(sa.sector_number() - head));
-         Stat.inc("num_disk_reads");
+         if (backend == BACKEND_CHANNEL) {
+            ByteBuffer buf = iop.get_buffer();
+            long pos = (long)sa.sector_number() * BYTES_PER_SECTOR;
+            while (buf.hasRemaining()
+                   && channel.read(buf, pos + buf.position()) >= 0)
+               ;
+         } else if (backend == BACKEND_MMAP) {
+            segmentAt(sa.sector_number()).get(iop.get_bytes(), 0, BYTES_PER_SECTOR);
+         } else {
+            raf.seek((long)sa.sector_number() * Disk.BYTES_PER_SECTOR); // modified by habals
+            byte bytes[] = new byte[BYTES_PER_SECTOR];
+            raf.read(bytes);
+            iop.write(bytes, 0, BYTES_PER_SECTOR);
+         }
 
-         head = sa.sector_number();
+         num_disk_reads.inc();
+         moved(sa.sector_number(), start);
       }
       catch(Exception e) {
          disk_failed = true;
@@ -123,39 +172,42 @@ public class Disk {
       throws BadDisk {
       check_fail(sa);
       if(sync) {
-         data_read(sa, iop);
-         OS.system_latency(op_latency(0, sa));	
+         data_read(sa, iop, KEY);
+         OS.system_latency(op_latency(0, sa), LATENCY);	
       } else {
-         ev.set_time(op_latency(0, sa));
+         ev.set_time(op_latency(0, sa), EVENT_TIME);
          CallbackManager.schedule_event(ev);
       }
    }
       
    
-   void data_write(DiskAddress sa, MemPage iop) throws BadDisk {
+   void data_write(DiskAddress sa, MemPage iop, Key key) throws BadDisk {
 
 	   p.p("DISK WRITE");
 
-      Throwable t = new Throwable();
-      StackTraceElement[] ste = t.getStackTrace();
-      String cname = ste[1].getClassName();
-      if(!cname.equals("Disk")
-         && !cname.equals("OS")) {
-         System.err.println(cname + ", a class other than OS or Disk called Disk.data_write.\nThis is not allowed");
-         t.printStackTrace();
+      if(key == null) {
+         System.err.println("Disk.data_write called without a disk key; only OS and Disk have one.\nThis is not allowed");
+         new Throwable().printStackTrace();
       }
       check_fail(sa);
+      long start = (op_time != null) ? System.nanoTime() : 0;
 
       try {
 
-      	raf.seek(sa.sector_number() * Disk.BYTES_PER_SECTOR); // modified by habals
-
-         raf.write(iop.get_bytes());
+         if (backend == BACKEND_CHANNEL) {
+            ByteBuffer buf = iop.get_buffer();
+            long pos = (long)sa.sector_number() * BYTES_PER_SECTOR;
+            while (buf.hasRemaining())
+               channel.write(buf, pos + buf.position());
+         } else if (backend == BACKEND_MMAP) {
+            segmentAt(sa.sector_number()).put(iop.get_bytes(), 0, BYTES_PER_SECTOR);
+         } else {
+            raf.seek((long)sa.sector_number() * Disk.BYTES_PER_SECTOR); // modified by habals
+            raf.write(iop.get_bytes());
+         }
 
-         Stat.add("disk_sectors_travelled", Math.abs(sa.sector_number() - head));
-         Stat.inc("num_disk_writes");
-
-         head = sa.sector_number();
+         num_disk_writes.inc();
+         moved(sa.sector_number(), start);
       }
       catch(IOException e) {
 
@@ -172,14 +224,69 @@ public class Disk {
       check_fail(sa);
       if(sync) {
     	 // p.p("Disk.write(): sync");
-         data_write(sa, iop);
-         OS.system_latency(op_latency(1, sa));
+         data_write(sa, iop, KEY);
+         OS.system_latency(op_latency(1, sa), LATENCY);
       } else {
-         ev.set_time(op_latency(0, sa));
+         ev.set_time(op_latency(0, sa), EVENT_TIME);
          CallbackManager.schedule_event(ev);
       }
    }
 
+   /**
+    * Make the sectors written so far durable in the disk file.  This
+    * costs no simulated time; it is the host file that is synced.
+    */
+   void force() throws BadDisk {
+      try {
+         if (backend == BACKEND_MMAP) {
+            for (int i = 0; i < segments.length; i++)
+               segments[i].force();
+         } else {
+            channel.force(false);
+         }
+      }
+      catch(Exception e) {
+         throw new BadDisk(EDISK_UNKNOWN, "Disk force failed " + e.getMessage());
+      }
+   }
+
+   /** @return the mapped segment holding sector, positioned at the sector */
+   private MappedByteBuffer segmentAt(int sector) {
+      long pos = (long)sector * BYTES_PER_SECTOR;
+      MappedByteBuffer seg = segments[(int)(pos / SEGMENT_BYTES)];
+      seg.position((int)(pos % SEGMENT_BYTES));
+      return seg;
+   }
+
+   // Access control keys, see OSEvent.  Only OS may move data besides
+   // Disk itself.
+   public static final class Key { private Key() {} }
+   // No initializer: OS takes its key while this class may still be
+   // being initialized.
+   private static boolean key_granted;
+
+   static Key grantKey() {
+      if(key_granted) {
+         System.err.println("The disk key has been handed out.\nThis is not allowed");
+         new Throwable().printStackTrace();
+         return null;
+      }
+      key_granted = true;
+      return new Key();
+   }
+   private static final Key KEY = new Key();
+   private static final OS.LatencyKey LATENCY = OS.grantLatencyKey();
+   private static final OSEvent.TimeKey EVENT_TIME = OSEvent.grantTimeKey();
+
+   /** count the head moving to sector, and the time since start of the op */
+   private void moved(int sector, long start) {
+      int distance = Math.abs(sector - head);
+      sectors_travelled.add(distance);
+      seek_distance.record(distance);
+      if (op_time != null) op_time.record(System.nanoTime() - start);
+      head = sector;
+   }
+
    int op_latency(int op, DiskAddress sa) {
       // op == 0 for read, 1 for write
       return 20;
@@ -192,7 +299,16 @@ public class Disk {
    private boolean disk_failed;
    private File file;
    private RandomAccessFile raf;
+   private FileChannel channel;  // of raf, for BACKEND_CHANNEL
+   private MappedByteBuffer[] segments;  // the whole file, for BACKEND_MMAP
+   private int backend;
    private int head;
+   // Host time of each data_read and data_write, if stat_timing is on
+   private Histogram op_time;
+   private static final Stat.Counter num_disk_reads = Stat.counter("num_disk_reads");
+   private static final Stat.Counter num_disk_writes = Stat.counter("num_disk_writes");
+   private static final Stat.Counter sectors_travelled = Stat.counter("disk_sectors_travelled");
+   private static final Histogram seek_distance = Stat.histogram("disk_seek_distance");
    // Does this disk respond as soon as it is called?
    private boolean sync;
 
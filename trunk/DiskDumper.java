@@ -11,6 +11,7 @@
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.TreeSet;
 import java.util.Iterator;
@@ -145,8 +146,14 @@ public class DiskDumper {
       try {
          RandomAccessFile file = open(args[0]);
          SuperBlock sb = getSuperBlock(file);
-         DirectoryBlock db = readDirB(file);
-         Dentry[] dentries = db.getDentries();
+         // The entries of every block in the directory's chain
+         ArrayList<Dentry> all = new ArrayList<Dentry>();
+         for (DirectoryBlock db = readDirB(file); db != null; ) {
+            all.addAll(Arrays.asList(db.getDentries()));
+            int next = db.getNext();
+            db = (next == 0) ? null : new DirectoryBlock(readSector(file, next));
+         }
+         Dentry[] dentries = all.toArray(new Dentry[all.size()]);
          int i;
          Arrays.sort(dentries);
          for(i = 0; i < dentries.length; ++i) {
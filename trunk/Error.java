@@ -26,6 +26,8 @@ public class Error {
    public final static int BAD_FILE_DESCRIPTOR = -7;
    /** trying to create a file with name longer than Dentry.MAX_FILENAME */
    public final static int ENAMETOOLONG = -8;
+   /** no buffer cache page can be had, and none will come free */
+   public final static int NO_FREE_PAGE = -9;
 
    
    /**
@@ -60,6 +62,9 @@ public class Error {
          case ENAMETOOLONG:
             System.err.println("Err: " + fileName + ": File Name too long.");
             break;
+         case NO_FREE_PAGE:
+            System.err.println("Err: " + fileName + ": No buffer cache page free!");
+            break;
          default:
       }
    }
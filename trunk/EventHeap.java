@@ -0,0 +1,137 @@
+/**
+ * class EventHeap
+ *
+ * A binary heap of OSEvents ordered by time, then sched_time, then
+ * the order in which they were added.  The ordering keys are kept in
+ * primitive arrays beside the events so sifting compares longs
+ * instead of calling compareTo, and each event remembers its slot so
+ * it can be removed without a search.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.util.NoSuchElementException;
+
+public class EventHeap {
+
+   public EventHeap() {
+      this(64);
+   }
+
+   public EventHeap(int capacity) {
+      events = new OSEvent[capacity];
+      keys = new long[capacity];
+      seqs = new long[capacity];
+   }
+
+   boolean isEmpty() { return size == 0; }
+   int size() { return size; }
+
+   /** @return the earliest event, which stays in the heap */
+   OSEvent first() {
+      if (size == 0) throw new NoSuchElementException();
+      return events[0];
+   }
+
+   void add(OSEvent ev) {
+      if (ev.heap_index >= 0)
+         throw new IllegalStateException("Event already queued: " + ev);
+      if (size == events.length) grow();
+      events[size] = ev;
+      keys[size] = key(ev);
+      seqs[size] = next_seq++;
+      ev.heap_index = size;
+      siftUp(size++);
+   }
+
+   /** @return false if ev was not in this heap */
+   boolean remove(OSEvent ev) {
+      int i = ev.heap_index;
+      if (i < 0 || i >= size || events[i] != ev) return false;
+      ev.heap_index = -1;
+      size--;
+      if (i != size) {
+         move(size, i);
+         siftDown(i);
+         siftUp(i);
+      }
+      events[size] = null;
+      return true;
+   }
+
+   /** @return the earliest event after taking it out, or null if empty */
+   OSEvent poll() {
+      if (size == 0) return null;
+      OSEvent ev = events[0];
+      remove(ev);
+      return ev;
+   }
+
+   // Times are never negative, so the signed compare orders by time
+   // and then by sched_time.
+   private static long key(OSEvent ev) {
+      return ((long)ev.time() << 32) | (ev.sched_time() & 0xffffffffL);
+   }
+
+   private boolean less(int i, int j) {
+      return keys[i] < keys[j] || (keys[i] == keys[j] && seqs[i] < seqs[j]);
+   }
+
+   private void siftUp(int i) {
+      while (i > 0) {
+         int parent = (i - 1) >>> 1;
+         if (!less(i, parent)) break;
+         swap(i, parent);
+         i = parent;
+      }
+   }
+
+   private void siftDown(int i) {
+      while (true) {
+         int child = 2 * i + 1;
+         if (child >= size) break;
+         if (child + 1 < size && less(child + 1, child)) child++;
+         if (!less(child, i)) break;
+         swap(i, child);
+         i = child;
+      }
+   }
+
+   private void move(int from, int to) {
+      events[to] = events[from];
+      keys[to] = keys[from];
+      seqs[to] = seqs[from];
+      events[to].heap_index = to;
+   }
+
+   private void swap(int i, int j) {
+      OSEvent ev = events[i];
+      long key = keys[i];
+      long seq = seqs[i];
+      move(j, i);
+      events[j] = ev;
+      keys[j] = key;
+      seqs[j] = seq;
+      ev.heap_index = j;
+   }
+
+   private void grow() {
+      int n = events.length * 2;
+      OSEvent[] e = new OSEvent[n];
+      long[] k = new long[n];
+      long[] s = new long[n];
+      System.arraycopy(events, 0, e, 0, size);
+      System.arraycopy(keys, 0, k, 0, size);
+      System.arraycopy(seqs, 0, s, 0, size);
+      events = e;
+      keys = k;
+      seqs = s;
+   }
+
+   private OSEvent[] events;
+   private long[] keys;
+   // Insertion order, so events with the same time and sched_time
+   // come out in the order they were scheduled
+   private long[] seqs;
+   private long next_seq;
+   private int size;
+}
@@ -0,0 +1,43 @@
+/**
+ * interface EvictionPolicy
+ *
+ * Decides which buffer cache page to give up when the cache is full.
+ * Pages are named by their index in the BufferCache page array; the
+ * BufferCache tells the policy about every page it fills, references,
+ * pins or drops, and asks it for a victim when it runs out of pages.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+public interface EvictionPolicy {
+
+   /** name of the policy, as given by cache_policy in system.properties */
+   String name();
+
+   /**
+    * A block has been loaded into a page
+    * @param page page number
+    * @param block block number now held by the page
+    */
+   void insert(int page, int block);
+
+   /** The block held by page has been referenced again */
+   void touch(int page);
+
+   /** The page was emptied by the cache itself (not through evict()) */
+   void remove(int page);
+
+   /**
+    * Pinned pages and pages with I/O pending must not be evicted
+    * @param page page number
+    * @param evictable false while the page must stay in memory
+    */
+   void setEvictable(int page, boolean evictable);
+
+   /**
+    * Choose a victim and forget about it
+    * @return page number to reuse,
+    *         -1, if no page can be evicted
+    */
+   int evict();
+}
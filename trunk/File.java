@@ -15,6 +15,14 @@ public class File {
    private int pos;  //in bytes: The int offset parameter in VFS.seek() is used to update file's pos variable and the documentation says offset is in bytes.
    private String fileName;
    private Inode inode = null;
+   // readahead state, in data block indexes of the inode
+   private int raWindow = 1;  // blocks to read ahead of the current one
+   private int raNext = 0;    // block a sequential reader asks for next
+   private int raEnd = 0;     // blocks below this have been read ahead
+   // disk blocks set aside for the next data blocks of the file, which
+   // are [paNext, paEnd) in the used block bitmap
+   private int paNext = 0;
+   private int paEnd = 0;
 
    public File() {
       fd = 0;
@@ -60,4 +68,35 @@ public class File {
    public int getPid() {
       return pid;
    }
+
+   public int getReadaheadWindow() {
+      return raWindow;
+   }
+
+   public int getReadaheadNext() {
+      return raNext;
+   }
+
+   public int getReadaheadEnd() {
+      return raEnd;
+   }
+
+   public void setReadahead(int window, int next, int end) {
+      raWindow = window;
+      raNext = next;
+      raEnd = end;
+   }
+
+   public int getPreallocNext() {
+      return paNext;
+   }
+
+   public int getPreallocEnd() {
+      return paEnd;
+   }
+
+   public void setPrealloc(int next, int end) {
+      paNext = next;
+      paEnd = end;
+   }
 }
@@ -0,0 +1,51 @@
+/**
+ * class GhostList
+ *
+ * A bounded FIFO of block numbers that have recently been evicted.
+ * 2Q and ARC use it to recognize blocks that come back soon after
+ * they were thrown out.  Only the block number is remembered, not
+ * its data.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+class GhostList {
+   private LinkedHashMap<Integer,Boolean> blocks =
+      new LinkedHashMap<Integer,Boolean>();
+   private int capacity;
+
+   GhostList(int _capacity) {
+      capacity = _capacity;
+   }
+
+   boolean contains(int block) {
+      return blocks.containsKey(Integer.valueOf(block));
+   }
+
+   /** add block as the newest entry, dropping the oldest ones if full */
+   void add(int block) {
+      Integer key = Integer.valueOf(block);
+      blocks.remove(key);
+      blocks.put(key, Boolean.TRUE);
+      while (blocks.size() > capacity)
+         removeOldest();
+   }
+
+   void remove(int block) {
+      blocks.remove(Integer.valueOf(block));
+   }
+
+   void removeOldest() {
+      Iterator<Integer> i = blocks.keySet().iterator();
+      if (i.hasNext()) {
+         i.next();
+         i.remove();
+      }
+   }
+
+   int size() {
+      return blocks.size();
+   }
+}
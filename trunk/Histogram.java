@@ -0,0 +1,78 @@
+/**
+ * class Histogram
+ *
+ * Counts non-negative values in log-linear buckets, as HdrHistogram
+ * does: values below 32 each have a bucket, and every power of two
+ * above that is split into 16, so a bucket is never more than about 6%
+ * wide.  Recording a value is a shift and an increment.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+public class Histogram {
+
+   static private final int SUB_BITS = 4;
+   static private final int SUB = 1 << SUB_BITS;
+
+   Histogram(String _name) {
+      name = _name;
+   }
+
+   String name() { return name; }
+
+   void record(long value) {
+      if (value < 0) value = 0;
+      counts[bucket(value)]++;
+      count++;
+      sum += value;
+      if (value < min) min = value;
+      if (value > max) max = value;
+   }
+
+   long count() { return count; }
+   long min() { return (count == 0) ? 0 : min; }
+   long max() { return max; }
+   double mean() { return (count == 0) ? 0 : (double)sum / count; }
+
+   /** @return a value with at least fraction of the values at or below it */
+   long percentile(double fraction) {
+      if (count == 0) return 0;
+      long need = (long)Math.ceil(fraction * count);
+      if (need < 1) need = 1;
+      long seen = 0;
+      for (int b = 0; b < counts.length; b++) {
+         seen += counts[b];
+         if (seen >= need)
+            return Math.max(min, Math.min(max, highest(b)));
+      }
+      return max;
+   }
+
+   public String toString() {
+      if (count == 0) return "count 0";
+      return "count " + count + ", mean " + Math.round(mean())
+         + ", p50 " + percentile(0.50) + ", p90 " + percentile(0.90)
+         + ", p99 " + percentile(0.99) + ", max " + max;
+   }
+
+   static private int bucket(long value) {
+      if (value < SUB) return (int)value;
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return SUB * (shift + 1) + (int)((value >>> shift) - SUB);
+   }
+
+   /** @return the largest value that falls in bucket b */
+   static private long highest(int b) {
+      if (b < SUB) return b;
+      int shift = b / SUB - 1;
+      long top = SUB + b % SUB;
+      return ((top + 1) << shift) - 1;
+   }
+
+   private String name;
+   // Enough buckets for any long
+   private long[] counts = new long[SUB * (64 - SUB_BITS)];
+   private long count;
+   private long sum;
+   private long min = Long.MAX_VALUE;
+   private long max;
+}
@@ -0,0 +1,114 @@
+/**
+ * class IntMap
+ *
+ * A map from non-negative int keys to non-negative int values using
+ * open addressing with linear probing.  A negative key cannot be
+ * stored, as NONE marks an empty slot: put() and remove() throw
+ * IllegalArgumentException for one, and get() finds nothing.  Unlike a Hashtable it boxes
+ * nothing, takes no lock and allocates nothing except when it grows,
+ * which makes it suitable for the lookup on every buffer cache access.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+class IntMap {
+   /** returned by get() and remove() when the key is not in the map */
+   public static final int NONE = -1;
+
+   private int[] keys;     // NONE marks an empty slot
+   private int[] values;
+   private int mask;
+   private int size;
+
+   IntMap(int expected) {
+      int capacity = 16;
+      while (capacity < expected * 2)
+         capacity <<= 1;
+      init(capacity);
+   }
+
+   private void init(int capacity) {
+      keys = new int[capacity];
+      values = new int[capacity];
+      mask = capacity - 1;
+      size = 0;
+      for (int i = 0; i < capacity; i++)
+         keys[i] = NONE;
+   }
+
+   private int slot(int key) {
+      int h = key * 0x9E3779B9;
+      return (h ^ (h >>> 16)) & mask;
+   }
+
+   public int get(int key) {
+      if (key < 0)
+         return NONE;
+      for (int i = slot(key); keys[i] != NONE; i = (i + 1) & mask) {
+         if (keys[i] == key)
+            return values[i];
+      }
+      return NONE;
+   }
+
+   public boolean containsKey(int key) {
+      return get(key) != NONE;
+   }
+
+   public void put(int key, int value) {
+      if (key < 0)
+         throw new IllegalArgumentException("IntMap key " + key);
+      int i = slot(key);
+      for (; keys[i] != NONE; i = (i + 1) & mask) {
+         if (keys[i] == key) {
+            values[i] = value;
+            return;
+         }
+      }
+      keys[i] = key;
+      values[i] = value;
+      if (++size * 4 > keys.length * 3)
+         grow();
+   }
+
+   /**
+    * @return the value that was mapped to key, NONE if there was none
+    */
+   public int remove(int key) {
+      if (key < 0)
+         throw new IllegalArgumentException("IntMap key " + key);
+      int i = slot(key);
+      for (; keys[i] != key; i = (i + 1) & mask) {
+         if (keys[i] == NONE)
+            return NONE;
+      }
+      int old = values[i];
+      // Shift the rest of the probe chain back so there are no holes
+      int hole = i;
+      for (i = (i + 1) & mask; keys[i] != NONE; i = (i + 1) & mask) {
+         int home = slot(keys[i]);
+         if (((i - home) & mask) >= ((i - hole) & mask)) {
+            keys[hole] = keys[i];
+            values[hole] = values[i];
+            hole = i;
+         }
+      }
+      keys[hole] = NONE;
+      size--;
+      return old;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   private void grow() {
+      int[] oldKeys = keys;
+      int[] oldValues = values;
+      init(keys.length * 2);
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldKeys[i] != NONE)
+            put(oldKeys[i], oldValues[i]);
+      }
+   }
+}
@@ -0,0 +1,54 @@
+/**
+ * class LRUPolicy
+ *
+ * Evict the least recently used page.  Pinned and busy pages are
+ * taken off the recency list, so every operation is O(1).
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+public class LRUPolicy implements EvictionPolicy {
+   private PageList recency;
+   private boolean[] held;
+
+   public LRUPolicy(int npages) {
+      recency = new PageList(npages);
+      held = new boolean[npages];
+   }
+
+   public String name() {
+      return "lru";
+   }
+
+   public void insert(int page, int block) {
+      held[page] = false;
+      recency.remove(page);
+      recency.addLast(page);
+   }
+
+   public void touch(int page) {
+      recency.moveToLast(page);
+   }
+
+   public void remove(int page) {
+      recency.remove(page);
+      held[page] = false;
+   }
+
+   public void setEvictable(int page, boolean evictable) {
+      if (held[page] == !evictable)
+         return;
+      held[page] = !evictable;
+      if (evictable)
+         recency.addLast(page);
+      else
+         recency.remove(page);
+   }
+
+   public int evict() {
+      int page = recency.first();
+      if (page >= 0)
+         recency.remove(page);
+      return page;
+   }
+}
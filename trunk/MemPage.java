@@ -7,6 +7,7 @@
  *
  * Copyright (c) 2004-09 University of Texas at Austin
  */
+import java.nio.ByteBuffer;
 
 public class MemPage {
    static final int BYTES_PER_PAGE = 4096;
@@ -48,6 +49,14 @@ public class MemPage {
       return data;
    }
 
+   /** @return a buffer over the page data, positioned at 0 with limit at the end */
+   ByteBuffer get_buffer() {
+      if (buffer == null)
+         buffer = ByteBuffer.wrap(data);
+      buffer.clear();
+      return buffer;
+   }
+
    void set_bytes(byte[] k) {
 
 
@@ -63,4 +72,5 @@ public class MemPage {
    }
 
    protected byte data[];
+   private ByteBuffer buffer; // view of data for channel I/O, made on first use
 }
@@ -21,6 +21,8 @@ public class OS implements OSInterface {
       da = new DiskAddress(0);
       sched = _sched;
       boolean sync = ProcessTrace.getEnv("sync_disks").equals("true");
+      sync_interval = Integer.parseInt(ProcessTrace.getEnv("disk_sync_interval"));
+      fast_forward = ProcessTrace.getEnv("fast_forward").equals("true");
       bc = BufferCache.BufferCacheFactory(sync, bd, _pages, sched);
       vfs = VFS.VFSFactory(sync, bc, this);
 
@@ -43,7 +45,7 @@ public class OS implements OSInterface {
       // Dbg.addLabel("sc");
 		
 
-      Dbg.println("os", "Operating System Initialized, booting");
+      Dbg.println(Dbg.OS, "Operating System Initialized, booting");
    }
 	
    void add_disk(Disk d) throws BlockDriver.MultipleDisks {
@@ -64,7 +66,7 @@ public class OS implements OSInterface {
    // we are still booting. 
    public boolean booting() {
       if(CallbackManager.isEmpty() && first_booting) {
-         Dbg.println("os", "Operating System boot complete");
+         Dbg.println(Dbg.OS, "Operating System boot complete");
          first_booting = false;
       }
       return first_booting;
@@ -87,37 +89,63 @@ public class OS implements OSInterface {
    public PCB getPCB(Integer Pid) {
       return sched.getPCB(Pid);
    }
-   static int system_time() {
-      Throwable t = new Throwable();
-      StackTraceElement[] ste = t.getStackTrace();
-      String cname = ste[1].getClassName();
-      if(cname.equals("OSEvent")|| cname.equals("OS")) {
+   static int system_time(TimeKey key) {
+      if(key != null) {
          return now;
       } else {
-         System.err.println(cname + ", a class other than OSEvent or OS called ProcessTrace.system_time.\nThis is not allowed");
-         t.printStackTrace();
+         System.err.println("OS.system_time called without a time key; only OSEvent and OS have one.\nThis is not allowed");
+         new Throwable().printStackTrace();
       }
       return 0;
    }
-   static int system_latency(int latency) {
-      Throwable t = new Throwable();
-      StackTraceElement[] ste = t.getStackTrace();
-      String cname = ste[1].getClassName();
-      if(cname.equals("Disk")) {
+   static int system_latency(int latency, LatencyKey key) {
+      if(key != null) {
          now += latency;
       } else {
-         System.err.println(cname + ", a class other than Disk called ProcessTrace.system_latency.\nThis is not allowed");
-         t.printStackTrace();
+         System.err.println("OS.system_latency called without a latency key; only Disk has one.\nThis is not allowed");
+         new Throwable().printStackTrace();
       }
       return 0;
    }
 
+   // Access control keys, see OSEvent.  OSEvent may read the time and
+   // Disk may advance it.
+   public static final class TimeKey { private TimeKey() {} }
+   public static final class LatencyKey { private LatencyKey() {} }
+   // No initializers: OSEvent and Disk take their keys while this class
+   // may still be being initialized.
+   private static boolean time_key_granted;
+   private static boolean latency_key_granted;
+
+   static TimeKey grantTimeKey() {
+      if(time_key_granted) {
+         System.err.println("The OS time key has been handed out.\nThis is not allowed");
+         new Throwable().printStackTrace();
+         return null;
+      }
+      time_key_granted = true;
+      return new TimeKey();
+   }
+   static LatencyKey grantLatencyKey() {
+      if(latency_key_granted) {
+         System.err.println("The OS latency key has been handed out.\nThis is not allowed");
+         new Throwable().printStackTrace();
+         return null;
+      }
+      latency_key_granted = true;
+      return new LatencyKey();
+   }
+   private static final TimeKey TIME = new TimeKey();
+   private static final OSEvent.TimeKey EVENT_TIME = OSEvent.grantTimeKey();
+   private static final Disk.Key DISK = Disk.grantKey();
+
    void run() {
 
       try {
          // Add disks to OS
          add_disk(new Disk(ProcessTrace.getEnv("disk_file"), 
-                           new Boolean(ProcessTrace.getEnv("sync_disks")).booleanValue(), (float)0.0));
+                           new Boolean(ProcessTrace.getEnv("sync_disks")).booleanValue(), (float)0.0,
+                           Disk.backendByName(ProcessTrace.getEnv("disk_backend"))));
          startup();
          boolean initdone = false;
          now++; // One tick gone for startup
@@ -135,7 +163,8 @@ public class OS implements OSInterface {
                if(!CallbackManager.isEmpty()){
                   if (now<CallbackManager.first().time()) {
                      now = CallbackManager.first().time();
-                     Dbg.println("os", "All the processes are blocked. Forwarding time to " + now + ", the time for next interrupt");
+                     if (Dbg.isEnabled(Dbg.OS))
+                        Dbg.println(Dbg.OS, "All the processes are blocked. Forwarding time to " + now + ", the time for next interrupt");
                   }
                }
                else if (!ProcessTrace.getPending().isEmpty()) {
@@ -146,8 +175,9 @@ public class OS implements OSInterface {
                current_burst = 0;
                curr_pcb.incrDispatches();
                quantum = curr_pcb.getQuantum();
-               Dbg.println("os", "Scheduling process " + curr_pid.intValue()
-                           + " at time " + now + " with quantum " + quantum);
+               if (Dbg.isEnabled(Dbg.OS))
+                  Dbg.println(Dbg.OS, "Scheduling process " + curr_pid.intValue()
+                              + " at time " + now + " with quantum " + quantum);
                must_do_schedule = false;
                now++;	// One tick goes for scheduling
             }
@@ -159,7 +189,8 @@ public class OS implements OSInterface {
                if(CallbackManager.isEmpty() == false) {
                   ev = CallbackManager.first();
                   while(ev != null && ev.time() <= now) {
-                     Dbg.println("pt", "PT.CB  " + ev);
+                     if (Dbg.isEnabled(Dbg.PT))
+                        Dbg.println(Dbg.PT, "PT.CB  " + ev);
                      CallbackManager.set_now(now);
                      CallbackManager.first().happen(this); // Interrupts are assumed not to consume ticks
                      CallbackManager.remove(ev);
@@ -177,20 +208,36 @@ public class OS implements OSInterface {
                if (ProcessTrace.getPending().isEmpty() && !CallbackManager.isEmpty()) { 
                   if (now<CallbackManager.first().time()) {
                      now = CallbackManager.first().time();
-                     Dbg.println("os", "All the processes are blocked. Forwarding time to " + now + ", the time for next interrupt");
+                     if (Dbg.isEnabled(Dbg.OS))
+                        Dbg.println(Dbg.OS, "All the processes are blocked. Forwarding time to " + now + ", the time for next interrupt");
                   }
                }
                // else if the current process has valid ticks from last compute
                else if (curr_pcb.getRemainingCPUBurst()>0) {
-                  current_burst++;
-                  curr_pcb.incrCPUTime(1);
+                  // Nothing but this burst can happen before the next
+                  // callback, so run all the ticks up to it at once
+                  int ticks = 1;
+                  if (fast_forward && !preempt_requested) {
+                     ticks = curr_pcb.getRemainingCPUBurst();
+                     if (quantum > current_burst && quantum - current_burst < ticks)
+                        ticks = quantum - current_burst;
+                     if (!CallbackManager.isEmpty()
+                         && CallbackManager.first().time() - now < ticks)
+                        ticks = CallbackManager.first().time() - now;
+                  }
+                  current_burst += ticks;
+                  curr_pcb.incrCPUTime(ticks);
+                  // now is the last tick of the run, bumped below
+                  now += ticks - 1;
+                  oldtime = now;
                   if (current_burst == quantum) {
                      // If preemption was also requested at this tick due to an interrupt unblocking
 		     // a process, then let this process expire, rather than preempt it
 		     if (preempt_requested)
 			     preempt_requested = false;
-                     Dbg.println("os", "Quantum Expired for process " + 
-                                 curr_pid + " at time " + now  + " (" + current_burst + " ticks in this dispatch)");
+                     if (Dbg.isEnabled(Dbg.OS))
+                        Dbg.println(Dbg.OS, "Quantum Expired for process " + 
+                                    curr_pid + " at time " + now  + " (" + current_burst + " ticks in this dispatch)");
                      sched.quantumExpired(curr_pid, current_burst);
                      must_do_schedule = true;
                   }
@@ -202,9 +249,10 @@ public class OS implements OSInterface {
                   if(ev != null) {
                      if (!initdone)
                         initdone = true;
-                     curr_pcb.setCurrentBurst(ev.getInt("ticks"));
-                     ev.set_time(ev.getInt("ticks"));
-                     Dbg.println("pt", "PT.ER  " + ev);
+                     curr_pcb.setCurrentBurst(ev.getTicks());
+                     ev.set_time(ev.getTicks(), EVENT_TIME);
+                     if (Dbg.isEnabled(Dbg.PT))
+                        Dbg.println(Dbg.PT, "PT.ER  " + ev);
                      CallbackManager.set_now(now);
                      current_burst++;
                      curr_pcb.incrCPUTime(1);
@@ -217,7 +265,8 @@ public class OS implements OSInterface {
                         sched.processBlocked(curr_pid, current_burst);
                         curr_pcb.setCurrentBurst(0);
                         curr_pcb.unblock();	// The process is still blocked, this just clears the flag in PCB
-                        Dbg.println("os", "Process " + curr_pid.intValue() + " blocked at time " + (now - 1) + " (" + current_burst + " ticks in this dispatch)");
+                        if (Dbg.isEnabled(Dbg.OS))
+                           Dbg.println(Dbg.OS, "Process " + curr_pid.intValue() + " blocked at time " + (now - 1) + " (" + current_burst + " ticks in this dispatch)");
                         must_do_schedule = true;
                      }
                      // or the directive killed the process
@@ -233,8 +282,9 @@ public class OS implements OSInterface {
                         if (current_burst == quantum) {
                            if (preempt_requested)
 				   preempt_requested = false;
-                           Dbg.println("os", "Quantum Expired for process " + 
-                                       curr_pid + " at time " + now + " (" + current_burst + " ticks in this dispatch)");
+                           if (Dbg.isEnabled(Dbg.OS))
+                              Dbg.println(Dbg.OS, "Quantum Expired for process " + 
+                                          curr_pid + " at time " + now + " (" + current_burst + " ticks in this dispatch)");
                            sched.quantumExpired(curr_pid, current_burst);
                            must_do_schedule = true;
                         }
@@ -242,14 +292,16 @@ public class OS implements OSInterface {
                   }
                   // otherwise this process's quantum can be expired?
                   else if (!preempt_requested && !booting()){ // Won't happen, if each process is killed finally
-                     Dbg.println("os", "Quantum Expired for process " + 
-                                 curr_pid + ", no more trace events left for this");
+                     if (Dbg.isEnabled(Dbg.OS))
+                        Dbg.println(Dbg.OS, "Quantum Expired for process " + 
+                                    curr_pid + ", no more trace events left for this");
                      sched.quantumExpired(curr_pid, current_burst);
                      must_do_schedule = true;	//No more trace events for this pid
                   }
                }
                if (preempt_requested && !booting()) {
-                  Dbg.println("os", "Preemption of process " + curr_pid + " requested at time " + now + " (" + current_burst + " ticks in this dispatch)");
+                  if (Dbg.isEnabled(Dbg.OS))
+                     Dbg.println(Dbg.OS, "Preemption of process " + curr_pid + " requested at time " + now + " (" + current_burst + " ticks in this dispatch)");
                   sched.quantumInterrupted(curr_pid, current_burst);
                   must_do_schedule = true;
                   preempt_requested = false;
@@ -264,15 +316,23 @@ public class OS implements OSInterface {
                shutdown();
                os_shutdown = true;
             }
+            if (sync_interval > 0 && now - last_sync >= sync_interval) {
+               bd.sync();
+               last_sync = now;
+            }
          } while(!CallbackManager.isEmpty()
                  || !ProcessTrace.getPending().isEmpty()
                  || !os_shutdown);
+         // The write backs started by shutdown() have all completed now
+         bd.sync();
       }
       catch (Exception e){
          System.err.println("OS exception catcher " +
                             e.getMessage());
          e.printStackTrace();
       }
+      // Write out the read check files of processes still around
+      ReadCheck.closeAll();
       System.out.println("\n  STATISTICS");
       NumberFormat f = NumberFormat.getInstance();
       f.setMaximumFractionDigits(2);
@@ -284,39 +344,63 @@ public class OS implements OSInterface {
                                    Stat.getInt("cache_read"))) + "%");
       System.out.println("Disk sectors travelled: " +
                          Stat.getInt("disk_sectors_travelled"));
+      System.out.println("Disk seek distance (sectors): " +
+                         Stat.histogram("disk_seek_distance"));
+      if (ProcessTrace.getEnv("stat_timing").equals("true")) {
+         System.out.println("Disk op time (ns): " + Stat.histogram("disk_op_ns"));
+         System.out.println("Cache read time (ns): " + Stat.histogram("cache_read_ns"));
+      }
       System.out.println("Number of disk (reads)(writes): ("
                          + Stat.getInt("num_disk_reads")
                          + ")(" 
                          + Stat.getInt("num_disk_writes")
                          + ")");
       System.out.println("Number of page replacement: " + Stat.getInt("cache_page_replaced"));
+      System.out.println("Evictions (clean)(dirty): ("
+                         + Stat.getInt("cache_clean_evictions")
+                         + ")("
+                         + Stat.getInt("cache_dirty_evictions")
+                         + ")");
+      System.out.println("Readahead (issued)(hit)(miss): ("
+                         + Stat.getInt("prefetch_issued")
+                         + ")("
+                         + Stat.getInt("prefetch_hit")
+                         + ")("
+                         + Stat.getInt("prefetch_miss")
+                         + ")");
+      String policy = bc.getPolicy().name();
+      int policy_hits = Stat.getInt("cache_" + policy + "_hit");
+      int policy_lookups = policy_hits + Stat.getInt("cache_" + policy + "_miss");
+      System.out.println("Eviction policy " + policy + " hit rate: " +
+                         (policy_lookups == 0 ? "-" :
+                          f.format(100.0 * policy_hits / policy_lookups) + "%"));
    }
 
    ////////////////////////////////////////////////////////////
    // Two main entry points, interrupts and syscalls
    public void interrupt(int interrupt_type, OSEvent ev) {
 
-      Disk d = (Disk)ev.get("Disk");
-      DiskAddress sa = (DiskAddress)ev.get("DiskAddress");
-      MemPage iop = (MemPage)ev.get("MemPage");
-      int syscall_number = ev.getInt("syscall_number");
+      Disk d = ev.getDisk();
+      DiskAddress sa = ev.getDiskAddress();
+      MemPage iop = ev.getMemPage();
+      int syscall_number = ev.getSyscallNumber();
       try {
          switch (interrupt_type) {
          case OSEvent.INT_DISK_READ :
 
-			if (ev.getInt("NoDiskRead") != 1) 
-               d.data_read(sa, iop);
+			if (!ev.noDiskRead()) 
+               d.data_read(sa, iop, DISK);
 			vfs.pageComplete(sa.sector_number());
 			break;
          case OSEvent.INT_DISK_WRITE :
 
-            d.data_write(sa, iop);
+            d.data_write(sa, iop, DISK);
 			break;
          default :
          }
-         ev.put("state", ev.get("next_state"));
+         ev.setState(ev.getNextState());
 			
-         if (ev.get("state") == null) return;
+         if (ev.getState() == OSEvent.UNSET) return;
 			
          switch (syscall_number) {
          case OSEvent.SYSCALL_OPEN:
@@ -333,12 +417,13 @@ public class OS implements OSInterface {
          case OSEvent.SYSCALL_SEEK:
             break;
          case OSEvent.NOT_AN_EVENT:
-            switch (ev.getInt("state")) {
+            switch (ev.getState()) {
             case VFS.ST_INODE_WRITE:
                vfs.writeInodeCallback(ev);
                break;
             case VFS.ST_LAST_INITIALIZE:
-               Dbg.println("vfs", "BufferCache is initialized! Activating the scheduler.");
+               Dbg.println(Dbg.VFS, "BufferCache is initialized! Activating the scheduler.");
+               vfs.initializeCallback(ev);
                break;
             }
 			break;
@@ -350,43 +435,48 @@ public class OS implements OSInterface {
          bad.printStackTrace();
          System.err.println("Exception on disk interrupt indicates something has gone seriously wrong");
       }
+      finally {
+         if (interrupt_type == OSEvent.INT_DISK_READ)
+            vfs.retryWaiting();
+      }
    }
 	
    public int syscall(int syscall_number, OSEvent ev) {
       try {
          switch (syscall_number) {
          case OSEvent.SYSCALL_CREATE:
-            vfs.create((String)ev.get("file_name"));
+            vfs.create(ev.getFileName());
 			break;
          case OSEvent.SYSCALL_OPEN:
-            vfs.open((String)ev.get("file_name"), ev.getInt("mode"), 
-                     ev.getInt("fd"));
+            vfs.open(ev.getFileName(), ev.getMode(), 
+                     ev.getFd());
 			break;
          case OSEvent.SYSCALL_CLOSE :
-            vfs.close(ev.getInt("fd"));
+            vfs.close(ev.getFd());
 			break;
          case OSEvent.SYSCALL_READ :
-            vfs.read(ev.getInt("fd"), ev.getInt("length"));
+            vfs.read(ev.getFd(), ev.getLength());
 			break;
          case OSEvent.SYSCALL_WRITE :
-            vfs.write(ev.getInt("fd"), ev.getInt("length"), (byte)ev.getInt("data"));
+            vfs.write(ev.getFd(), ev.getLength(), (byte)ev.getData());
 			break;
          case OSEvent.SYSCALL_SEEK :
-            vfs.seek(ev.getInt("fd"), ev.getInt("whence"), ev.getInt("offset"));
+            vfs.seek(ev.getFd(), ev.getWhence(), ev.getOffset());
 			break;
          case OSEvent.SYSCALL_PROC_CREATE:
-				p.p("CREATE PROCESS - "+ev.get("new_pid"));
-            PCB pcb = new PCB((Integer)ev.get("new_pid"));
+				p.p("CREATE PROCESS - "+ev.getNewPid());
+            PCB pcb = new PCB(ev.getNewPid());
 				sched.processStarted(pcb);
-				pcb.started(system_time());
+				pcb.started(system_time(TIME));
 			break;
          case OSEvent.SYSCALL_PROC_KILL:
-				p.p("KILL PROCESS - "+ev.get("kill_pid"));
+				p.p("KILL PROCESS - "+ev.getKillPid());
             sched.getPCB(sched.getCurrentPID()).marked_for_death = true;
-			sched.processExited((Integer)ev.get("kill_pid"));
+			sched.processExited(Integer.valueOf(ev.getKillPid()));
+			ReadCheck.close(ev.getKillPid());
 			break;
          case OSEvent.SYSCALL_COMPUTE:
-            sched.getPCB(sched.getCurrentPID()).setAppData((byte)ev.getInt("data"));
+            sched.getPCB(sched.getCurrentPID()).setAppData((byte)ev.getData());
             break;
          default :
             System.err.println("Syscall with bad number " + syscall_number);
@@ -413,6 +503,11 @@ public class OS implements OSInterface {
    // Just a flag so we know when to print that we are done booting.
    private boolean first_booting;
    private boolean os_shutdown = false;
+   // Ticks between syncs of the disk file, 0 syncs only at the end
+   private int sync_interval;
+   private int last_sync;
+   // Run compute bursts up to the next event instead of tick by tick
+   private boolean fast_forward;
    // Process data
    private PCB curr_pcb;
    private Integer curr_pid;
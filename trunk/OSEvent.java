@@ -7,8 +7,6 @@
  *
  * Copyright (c) 2004-09 University of Texas at Austin
  */
-import java.util.HashMap;
-
 public class OSEvent implements Comparable {
    static final int NOT_AN_EVENT   = 0;
    static final int INT_TIMER      = 1;    
@@ -26,6 +24,10 @@ public class OSEvent implements Comparable {
    static final int SYSCALL_PROC_KILL  = 12;
    static final int SYSCALL_COMPUTE = 13;
    static final int SYSCALL_MAX  = 14;
+
+   // Value of a payload int that has not been set
+   static final int UNSET = -1;
+
    static final String[] sys_names = {"NOT_AN_EVENT",
                                       "INT_TIMER",
                                       "INT_DISK_READ",
@@ -56,29 +58,37 @@ public class OSEvent implements Comparable {
       this.pid = _ev.pid;
       this.event_number = _ev.event_number;
       this.sched_time = _ev.sched_time;
-      this.hm = new HashMap(_ev.hm); // Need a new instance
+      // Objects are shared, as they were when the payload was a HashMap
+      this.syscall_number = _ev.syscall_number;
+      this.fd = _ev.fd;
+      this.length = _ev.length;
+      this.data = _ev.data;
+      this.ticks = _ev.ticks;
+      this.mode = _ev.mode;
+      this.whence = _ev.whence;
+      this.offset = _ev.offset;
+      this.new_pid = _ev.new_pid;
+      this.kill_pid = _ev.kill_pid;
+      this.state = _ev.state;
+      this.next_state = _ev.next_state;
+      this.done = _ev.done;
+      this.no_disk_read = _ev.no_disk_read;
+      this.file_name = _ev.file_name;
+      this.disk = _ev.disk;
+      this.disk_address = _ev.disk_address;
+      this.mem_page = _ev.mem_page;
    }
 
-   // Note, the OSEvent "owns" the HashMap, assuming the user drops
-   // its reference after creating the OSEvent. 
-   OSEvent(HashMap _hm) {
-      // Read time, pid and event number out of hash map
-      // and then delete them
-      try {
-         this.time = OS.system_time();
-         if(!_hm.containsKey("pid"))
-            this.pid = ProcessTrace.system_pid();
-         else {
-            this.pid = ((Integer)_hm.get("pid")).intValue();
-            _hm.remove("pid");
-         }
-         this.event_number = ((Integer)_hm.get("event_number")).intValue();
-         // The truth for pid and event_number is now cached in the
-         // object, not in the hash map.
-      } catch(Exception e) {
-         System.err.println("Bad OSEvent created without all of time, pid and event_number" + e);
-      }
-      hm = _hm; // Don't new HashMap(_hm);
+   /** An event for the current process, timed now */
+   OSEvent(int _event_number) {
+      this(_event_number, ProcessTrace.system_pid(PID));
+   }
+
+   /** An event for process _pid, timed now */
+   OSEvent(int _event_number, int _pid) {
+      this.time = OS.system_time(OS_TIME);
+      this.pid = _pid;
+      this.event_number = _event_number;
    }
 
    public int compareTo(Object o) {
@@ -89,8 +99,14 @@ public class OSEvent implements Comparable {
       return 0;	
    }
 
+   // Same as compareTo() == 0
    public boolean equals(Object o) {
-      return time == ((OSEvent)o).time;
+      if (!(o instanceof OSEvent)) return false;
+      return time == ((OSEvent)o).time && sched_time == ((OSEvent)o).sched_time;
+   }
+
+   public int hashCode() {
+      return 31 * time + sched_time;
    }
 
    public String toString() {
@@ -104,77 +120,151 @@ public class OSEvent implements Comparable {
       }
 
       s += " pid:" + pid + " time:" + time;
-      s += " " + hm.toString();
+      // Ints that are UNSET are left out
+      String f = "";
+      f = field(f, "syscall_number", syscall_number);
+      f = field(f, "fd", fd);
+      f = field(f, "length", length);
+      f = field(f, "data", data);
+      f = field(f, "ticks", ticks);
+      f = field(f, "mode", mode);
+      f = field(f, "whence", whence);
+      f = field(f, "offset", offset);
+      f = field(f, "new_pid", new_pid);
+      f = field(f, "kill_pid", kill_pid);
+      f = field(f, "state", state);
+      f = field(f, "next_state", next_state);
+      f = field(f, "done", done);
+      if (no_disk_read) f = field(f, "NoDiskRead", 1);
+      if (file_name != null) f = field(f, "file_name", file_name);
+      if (disk != null) f = field(f, "Disk", disk);
+      if (disk_address != null) f = field(f, "DiskAddress", disk_address);
+      if (mem_page != null) f = field(f, "MemPage", mem_page);
+      s += " {" + f + "}";
 
       return s;
    }
 
+   private static String field(String fields, String name, int v) {
+      return (v == UNSET) ? fields : field(fields, name, String.valueOf(v));
+   }
+
+   private static String field(String fields, String name, Object o) {
+      return fields + (fields.length() > 0 ? ", " : "") + name + "=" + o;
+   }
+
    int time() { return this.time; }
-   void set_time(int _time) {
-      // Check the class of our caller do to access control
-      Throwable t = new Throwable();
-      StackTraceElement[] ste = t.getStackTrace();
-      String cname = ste[1].getClassName();
-      if(cname.equals("CallbackManager")
-         || cname.equals("Disk")
-         || cname.equals("ProcessTrace")
-		 || cname.equals("OS")) {
+   int sched_time() { return this.sched_time; }
+   void set_time(int _time, TimeKey key) {
+      // Only holders of a TimeKey may change the time of an event
+      if(key != null) {
          this.time = _time; 
       } else {
-         System.err.println(cname + ", a class other than CallbackManager, ProcessTrace or Disk called OSEvent.set_time.\nThis is not allowed");
-         t.printStackTrace();
+         System.err.println("OSEvent.set_time called without a time key; only CallbackManager, ProcessTrace, OS and Disk have one.\nThis is not allowed");
+         new Throwable().printStackTrace();
       }
    }
-   void set_sched_time(int _time) {
-//    Check the class of our caller do to access control
-      Throwable t = new Throwable();
-      StackTraceElement[] ste = t.getStackTrace();
-      String cname = ste[1].getClassName();
-      if(cname.equals("CallbackManager")
-         || cname.equals("Disk")
-         || cname.equals("ProcessTrace")) {
+   void set_sched_time(int _time, SchedKey key) {
+      if(key != null) {
          this.sched_time = _time; 
       } else {
-         System.err.println(cname + ", a class other than CallbackManager, ProcessTrace or Disk called OSEvent.set_sched_time.\nThis is not allowed");
-         t.printStackTrace();
+         System.err.println("OSEvent.set_sched_time called without a sched key; only CallbackManager has one.\nThis is not allowed");
+         new Throwable().printStackTrace();
       }   
    }
-   int pid() { return pid; }
-   Object get(String s) { return hm.get(s); }
-   int getInt(String s) { 
-      try {
-         return ((Integer)hm.get(s)).intValue(); 
-      }
-      catch (NullPointerException e) {
-         return -1;
+
+   /*
+    * Access control.  The time of an event may only be set by the
+    * classes that are handed a key below.  Nobody else can make a key, so
+    * the check is a null test.  Each holder takes its key into a static
+    * final field when it is initialized, and ProcessTrace initializes all
+    * holders before any other code runs, so the keys are gone by then.
+    */
+   public static final class TimeKey { private TimeKey() {} }
+   public static final class SchedKey { private SchedKey() {} }
+   // CallbackManager, ProcessTrace, OS and Disk
+   private static final int TIME_KEYS = 4;
+   // These counters must not have initializers: holders may take their
+   // keys while this class is still being initialized.
+   private static int time_keys_granted;
+   private static int sched_keys_granted;
+
+   static TimeKey grantTimeKey() {
+      if(time_keys_granted == TIME_KEYS) {
+         System.err.println("All OSEvent time keys have been handed out.\nThis is not allowed");
+         new Throwable().printStackTrace();
+         return null;
       }
+      time_keys_granted++;
+      return new TimeKey();
    }
-   
-   boolean getBoolean(String s) { 
-      try {
-         return ((Boolean)hm.get(s)).booleanValue(); 
-      }
-      catch (NullPointerException e) {
-         return false;
+   // CallbackManager only
+   static SchedKey grantSchedKey() {
+      if(sched_keys_granted == 1) {
+         System.err.println("The OSEvent sched key has been handed out.\nThis is not allowed");
+         new Throwable().printStackTrace();
+         return null;
       }
+      sched_keys_granted++;
+      return new SchedKey();
    }
+   private static final OS.TimeKey OS_TIME = OS.grantTimeKey();
+   private static final ProcessTrace.PidKey PID = ProcessTrace.grantPidKey();
 
-   void put(Object o0, Object o1) { 
-	    //p.p("--- OSEvent.put(Object o0, Object 01): o0 = " +o0+ " and o1 = " +o1);
-	   hm.put(o0, o1); 
-	   // p.p("--- OSEvent.put(): method DONE!!!");   
-   }
-   void putInt(Object o, int i) { 
+   int pid() { return pid; }
+   int getEventNumber() { return event_number; }
 
-		hm.put(o, new Integer(i)); }
-   void putBoolean(Object o, boolean b) { hm.put(o, new Boolean(b)); }
-   
-   int getState() { return getInt("state"); }
-   void setState(int s) { putInt("state", s); } 
-   void setNextState() { setState(getState()+1); }
+   /*
+    * The payload.  Each kind of event uses a few of these fields:
+    *   syscalls from the trace: fd, length, data, ticks, mode, whence,
+    *     offset, new_pid, kill_pid and file_name
+    *   disk interrupts: disk, disk_address, mem_page, no_disk_read,
+    *     and syscall_number, next_state and state, which say whose
+    *     callback runs; a VFS request carries its fd, length, data and
+    *     done along
+    * Ints that have not been set are UNSET.
+    */
+   int getSyscallNumber() { return syscall_number; }
+   void setSyscallNumber(int n) { syscall_number = n; }
+   int getFd() { return fd; }
+   void setFd(int _fd) { fd = _fd; }
+   int getLength() { return length; }
+   void setLength(int _length) { length = _length; }
+   int getData() { return data; }
+   void setData(int _data) { data = _data; }
+   int getTicks() { return ticks; }
+   void setTicks(int _ticks) { ticks = _ticks; }
+   int getMode() { return mode; }
+   void setMode(int _mode) { mode = _mode; }
+   int getWhence() { return whence; }
+   void setWhence(int _whence) { whence = _whence; }
+   int getOffset() { return offset; }
+   void setOffset(int _offset) { offset = _offset; }
+   int getNewPid() { return new_pid; }
+   void setNewPid(int _pid) { new_pid = _pid; }
+   int getKillPid() { return kill_pid; }
+   void setKillPid(int _pid) { kill_pid = _pid; }
+   int getDone() { return done; }
+   void setDone(int _done) { done = _done; }
+   int getNextState() { return next_state; }
+   void setNextState(int s) { next_state = s; }
+   boolean noDiskRead() { return no_disk_read; }
+   void setNoDiskRead(boolean b) { no_disk_read = b; }
+   String getFileName() { return file_name; }
+   void setFileName(String name) { file_name = name; }
+   Disk getDisk() { return disk; }
+   void setDisk(Disk d) { disk = d; }
+   DiskAddress getDiskAddress() { return disk_address; }
+   void setDiskAddress(DiskAddress sa) { disk_address = sa; }
+   MemPage getMemPage() { return mem_page; }
+   void setMemPage(MemPage page) { mem_page = page; }
+
+   int getState() { return state; }
+   void setState(int s) { state = s; }
 
    void happen(OSInterface os) {
 
+      happened++;
       boolean bad = true;
       if(event_number > NOT_AN_EVENT) {
          if(event_number < INT_MAX) {
@@ -190,9 +280,32 @@ public class OSEvent implements Comparable {
       }
    }
 
+   /** @return number of events that have happened so far */
+   static long happened() { return happened; }
+
+   static private long happened = 0;
    private int sched_time;
    private int time;
+   // Slot in the CallbackManager's EventHeap, -1 when not queued there
+   int heap_index = -1;
    private int event_number;
    private int pid;
-   private HashMap hm;
+   private int syscall_number = UNSET;
+   private int fd = UNSET;
+   private int length = UNSET;
+   private int data = UNSET;
+   private int ticks = UNSET;
+   private int mode = UNSET;
+   private int whence = UNSET;
+   private int offset = UNSET;
+   private int new_pid = UNSET;
+   private int kill_pid = UNSET;
+   private int state = UNSET;
+   private int next_state = UNSET;
+   private int done = UNSET;
+   private boolean no_disk_read;
+   private String file_name;
+   private Disk disk;
+   private DiskAddress disk_address;
+   private MemPage mem_page;
 }
@@ -156,7 +156,8 @@ public class PCB {
 
 		blocked = false;
 		started_time = current_time;
-		Dbg.println("sc", "Process " + this.pid + " started at time " + current_time);
+		if (Dbg.isEnabled(Dbg.SC))
+			Dbg.println(Dbg.SC, "Process " + this.pid + " started at time " + current_time);
 		is_started = true;
 	}
 
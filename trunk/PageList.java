@@ -0,0 +1,69 @@
+/**
+ * class PageList
+ *
+ * A doubly-linked list of buffer cache pages, threaded through two
+ * int arrays indexed by page number, so that insertion, removal and
+ * move-to-end are O(1) and allocate nothing.  The oldest page is at the
+ * head and the newest at the tail.  A page is on at most one list.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+class PageList {
+   private int[] prev;
+   private int[] next;
+   private int head;  // sentinel index
+   private int size;
+
+   PageList(int npages) {
+      prev = new int[npages + 1];
+      next = new int[npages + 1];
+      head = npages;
+      for (int i = 0; i < npages; i++)
+         prev[i] = next[i] = -1;
+      prev[head] = next[head] = head;
+      size = 0;
+   }
+
+   boolean contains(int page) {
+      return prev[page] >= 0;
+   }
+
+   /** append page at the tail (most recent end) */
+   void addLast(int page) {
+      int tail = prev[head];
+      prev[page] = tail;
+      next[page] = head;
+      next[tail] = page;
+      prev[head] = page;
+      size++;
+   }
+
+   void remove(int page) {
+      if (prev[page] < 0)
+         return;
+      next[prev[page]] = next[page];
+      prev[next[page]] = prev[page];
+      prev[page] = -1;
+      next[page] = -1;
+      size--;
+   }
+
+   /** move page to the tail, if it is on the list */
+   void moveToLast(int page) {
+      if (prev[page] < 0)
+         return;
+      remove(page);
+      addLast(page);
+   }
+
+   /** @return page at the head (oldest end), -1 if empty */
+   int first() {
+      int page = next[head];
+      return page == head ? -1 : page;
+   }
+
+   int size() {
+      return size;
+   }
+}
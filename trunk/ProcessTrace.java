@@ -8,20 +8,17 @@
  *
  * Copyright (c) 2004-09 University of Texas at Austin
  */
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Properties;
 import java.util.TreeSet;
 import java.util.LinkedList;
 import java.util.zip.*;
-import java.util.Enumeration;
-import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
 
 public class ProcessTrace {
 	
@@ -32,9 +29,43 @@ public class ProcessTrace {
    static private OS os;
    LinkedList proc_list;
 	
-   // The trace file
-   BufferedReader tfile = null;
    private int trace_index = 0;
+   private TraceParser parser = new TraceParser();
+
+   // The trace file, text or binary (see TraceCompiler)
+   static private TraceReader reader;
+   static private BinaryTraceReader binary;
+   // Streaming mode keeps at most trace_window events per pid in
+   // pending and goes back to the trace for more through a cursor.
+   static private ProcessTrace stream = null;
+   static private HashMap cursors;
+   static private int window;
+   // Set once the streaming index is built.  Lines are parsed again as
+   // they are needed, and their errors and proc_creates were seen then.
+   private boolean reparsing = false;
+
+   /** where a process's next events are in the trace */
+   static private class Cursor {
+      Cursor(long _offset) { offset = _offset; }
+      long offset;
+      // Orders the pid's events in pending
+      int count;
+   }
+
+   static private final OSEvent.TimeKey EVENT_TIME = OSEvent.grantTimeKey();
+   // Initialize every class that holds an access key (see OSEvent) now,
+   // so that all keys are handed out before any other code runs.
+   static {
+      try {
+         Class.forName("OSEvent");
+         Class.forName("OS");
+         Class.forName("Disk");
+         Class.forName("CallbackManager");
+      }
+      catch (ClassNotFoundException e) {
+         e.printStackTrace();
+      }
+   }
 	
    ProcessTrace(String fname) {
       init(fname);
@@ -46,6 +77,7 @@ public class ProcessTrace {
       if (props == null) {
          props = new Properties();
          // put default setting here
+         // A text trace, or a binary one from TraceCompiler
          props.setProperty("trace_file", "simple0.tr");
          props.setProperty("sched_class","RR");
          props.setProperty("disk_file", "test_disk");
@@ -56,12 +88,34 @@ public class ProcessTrace {
          // Percentage of disk to use as memory
          props.setProperty("mem_percentage", "100");
          props.setProperty("read_check", "rc");
+         // Buffer cache replacement: lru, clock, 2q or arc
+         props.setProperty("cache_policy", "lru");
+         // Most data blocks to read ahead of a sequential reader with
+         // async disks, 0 is off
+         props.setProperty("readahead_max", "8");
+         // Data blocks set aside for a file that starts a new run on
+         // disk, 0 allocates each block on its own
+         props.setProperty("prealloc_blocks", "8");
+         // Disk file I/O: raf (seek + read/write), channel (positional)
+         // or mmap (memory mapped)
+         props.setProperty("disk_backend", "raf");
+         // Ticks between syncs of the disk file, 0 syncs only at the end
+         props.setProperty("disk_sync_interval", "0");
+         // Run compute bursts up to the next event in one step
+         props.setProperty("fast_forward", "true");
+         // Read the trace in as it is needed, at most trace_window
+         // events ahead per process, instead of all of it up front
+         props.setProperty("trace_streaming", "false");
+         props.setProperty("trace_window", "64");
+         // Time disk operations and cache reads on the host and report
+         // their distributions
+         props.setProperty("stat_timing", "false");
          try {
             // Let user override defaults
             props.load(new FileInputStream("system.properties"));
          }
          catch (Exception e) {
-            Dbg.println("pt", "Using default properties");
+            Dbg.println(Dbg.PT, "Using default properties");
          }
       }
       return props.getProperty(key);
@@ -71,19 +125,32 @@ public class ProcessTrace {
       return pending;
    }
 	
-   static int system_pid() {
-      Throwable t = new Throwable();
-      StackTraceElement[] ste = t.getStackTrace();
-      String cname = ste[1].getClassName();
-      if(cname.equals("OSEvent")) {
+   static int system_pid(PidKey key) {
+      if(key != null) {
          return os.running();
       } else {
-         System.err.println(cname + ", a class other than OSEvent called ProcessTrace.system_pid.\nThis is not allowed");
-         t.printStackTrace();
+         System.err.println("ProcessTrace.system_pid called without a pid key; only OSEvent has one.\nThis is not allowed");
+         new Throwable().printStackTrace();
       }
       return 0;
    }
 
+   // Access control keys, see OSEvent.  Only OSEvent may ask for the pid.
+   public static final class PidKey { private PidKey() {} }
+   // No initializer: OSEvent takes its key while this class is being
+   // initialized.
+   static private boolean pid_key_granted;
+
+   static PidKey grantPidKey() {
+      if(pid_key_granted) {
+         System.err.println("The pid key has been handed out.\nThis is not allowed");
+         new Throwable().printStackTrace();
+         return null;
+      }
+      pid_key_granted = true;
+      return new PidKey();
+   }
+
    public static void main(String[] args) {
 
       ProcessTrace pt = null;
@@ -97,10 +164,10 @@ public class ProcessTrace {
       try {
          pt = new ProcessTrace(getEnv("trace_file"));
          File disk_file = new File(getEnv("disk_file"));
-         int len = (int)disk_file.length();
+         long len = disk_file.length();
 
-         int NPAGES = (new Integer(getEnv("mem_percentage")).intValue()
-                       * (len/MemPage.BYTES_PER_PAGE)) / 100;
+         int NPAGES = (int)((new Integer(getEnv("mem_percentage")).intValue()
+                             * (len/MemPage.BYTES_PER_PAGE)) / 100);
          if(NPAGES < 6) {
             throw new Exception("mem_percentage is too low, need at least 6 pages of memory\n");
          }
@@ -144,162 +211,153 @@ public class ProcessTrace {
       proc_list = new LinkedList();
       trace_exhausted = false;
       init_events(fname);
+      if (getEnv("trace_streaming").equals("true")) {
+         if (binary == null || binary.canSeek()) {
+            init_stream(fname);
+            return;
+         }
+         System.err.println("A gzipped trace cannot be streamed, reading all of " + fname);
+      }
       while (!trace_exhausted)
          pending_put(readTraceFileLine());
       trace_exhausted = false;
    }
-	
-   private HashMap parseTrace(String line) {
-		HashMap hm = new HashMap();
 
-      // alist[1] : pid
-      while (line.startsWith(" ")) line = line.substring(1);
-      String s_pid = line.substring(0, line.indexOf(' '));
-      line = line.substring(line.indexOf(' ')+1);
-      hm.put("pid", new Integer(s_pid));
-		
-      // alist[2] : syscall num
-      String syscall = line.substring(0, line.indexOf('(')).toLowerCase();
-      String args = line.substring(line.indexOf('(')+1, line.indexOf(')'));
+   /**
+    * Index the trace for streaming: parse it once, as init does, but
+    * only note each pid and where its first event is.  Events are
+    * read in per pid by pending_get.
+    */
+   private void init_stream(String fname) {
+      window = Integer.parseInt(getEnv("trace_window"));
+      if (window < 1) window = 1;
+      cursors = new HashMap();
       try {
-         if (syscall.equals("proc_create")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_PROC_CREATE);
-            hm.put("new_pid", new Integer(args));
-            proc_list.add(new Integer(args));
-         }
-         else if (syscall.equals("compute")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_COMPUTE);
-            if (args.indexOf(',')>=0) {
-               hm.put("data", new Integer(args.substring(0, args.indexOf(',')).trim()));
-               args = args.substring(args.indexOf(',')+1);
-               while (args.startsWith(" ")) args = args.substring(1);
-               if ((new Integer(args)).intValue() < 1) 
-                  throw (new Exception("Compute directive must have a positive value for ticks"));
-               hm.put("ticks", new Integer(args));
-            }
-            else {
-               throw (new Exception("Compute directive must have valid values for data & ticks"));
-            }
-         }
-         else if (syscall.equals("proc_kill")) {
-            hm.put("event_number",OSEvent.I_SYSCALL_PROC_KILL);
-            hm.put("kill_pid", new Integer(args));
-            if (((Integer)hm.get("pid")).intValue()!=((Integer)hm.get("kill_pid")).intValue())
-               throw (new Exception("A process can only kill itself!"));
-         }
-         else if (syscall.equals("create")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_CREATE);
-            if (args.startsWith("\"")) args = args.substring(1);
-            if (args.endsWith("\"")) args = args.substring(0, args.length()-1);
-            hm.put("file_name", new String(args));
-         }
-         else if (syscall.equals("open")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_OPEN);
-            line = line.substring(line.indexOf('=')+1).trim();
-            while (line.startsWith(" "))
-               line = line.substring(1);
-            String fileName = args.substring(0, args.indexOf(','));
-            if (fileName.startsWith("\"")) fileName = fileName.substring(1);
-            args = args.substring(args.indexOf(',')+1) + "|";
-            int mode = 0;
-            while (args.indexOf('|') > 0) {
-               String modeStr = args.substring(0, args.indexOf('|')).trim();
-               while (modeStr.startsWith(" ")) modeStr = modeStr.substring(1);
-               if (modeStr.equals("O_RDONLY"))
-                  mode = mode | VFS.O_RDONLY;
-               else if (modeStr.equals("O_WRONLY"))
-                  mode = mode | VFS.O_WRONLY;
-               else if (modeStr.equals("O_RDWR"))
-                  mode = mode | VFS.O_RDWR;
-               else if (modeStr.equals("O_APPEND"))
-                  mode = mode | VFS.O_APPEND;
-               args = args.substring(args.indexOf('|')+1);
+         while (true) {
+            long offset = position();
+            OSEvent ev = nextEvent(null);
+            if (ev == null) break;
+            Integer pid = new Integer(ev.pid());
+            if (!pending.containsKey(pid)) {
+               pending.put(pid, new TreeSet());
+               cursors.put(pid, new Cursor(offset));
             }
-            hm.put("file_name", fileName);
-            hm.put("mode", new Integer(mode));
-            hm.put("fd", new Integer(line)); // New file descriptor
-         }
-         else if (syscall.equals("close")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_CLOSE);
-            while (args.startsWith(" ")) args = args.substring(1);
-            hm.put("fd", new Integer(args.trim()));
          }
-         else if (syscall.equals("write")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_WRITE);
-            line = line.substring(line.indexOf("=") + 1).trim();
-            if (args.indexOf(',')>=0) {
-               hm.put("fd", new Integer(args.substring(0, args.indexOf(',')).trim()));
-               args = args.substring(args.indexOf(',')+1);
-               while (args.startsWith(" ")) args = args.substring(1);
-               Integer length = new Integer(args.trim());
-               if (length.intValue() < 1) 
-                  throw (new Exception("Write directive must have a positive value for length"));
-               hm.put("length", length);
-               if ((!line.startsWith("0x") && !line.startsWith("0X"))) {
-                  throw (new Exception("Write directive must have a valid HEX data starting with 0x"));
-               }
-               line = line.substring(2);
-               hm.put("data", new Integer(Integer.parseInt(line.trim(), 16)));
-            }
-            else {
-               throw (new Exception("Write directive must have valid values for fd & length"));
-            }
+      }
+      catch(IOException e) {
+         System.err.println("Error reading file " + fname);
+         e.printStackTrace();
+         Dbg.ASSERT(false);
+      }
+      reparsing = true;
+      stream = this;
+   }
+
+   /** read up to window more events of pid from its cursor into ts */
+   private void refill(Integer pid, TreeSet ts) {
+      Cursor c = (Cursor)cursors.get(pid);
+      try {
+         seek(c.offset);
+         while (ts.size() < window) {
+            OSEvent ev = nextEvent(pid);
+            if (ev == null) break;
+            ev.set_time(c.count++, EVENT_TIME);
+            ts.add(ev);
          }
-         else if (syscall.equals("read")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_READ);
-            if (args.indexOf(',')>=0) {
-               hm.put("fd", new Integer(args.substring(0, args.indexOf(',')).trim()));
-               args = args.substring(args.indexOf(',')+1);
-               while (args.startsWith(" ")) args = args.substring(1);
-               if ((new Integer(args.trim())).intValue() < 1) 
-                  throw (new Exception("Read directive must have a positive value for length"));
-               hm.put("length", new Integer(args.trim()));
-            }
-            else {
-               throw (new Exception("Read directive must have valid values for fd & length"));
+         c.offset = position();
+      }
+      catch(IOException e) {
+         System.err.println("IOException: " + e.getMessage());
+         e.printStackTrace();
+      }
+   }
+
+   /** @return the offset of the next line or record of the trace */
+   static private long position() {
+      return (binary != null) ? binary.position() : reader.position();
+   }
+
+   static private void seek(long offset) {
+      if (binary != null) binary.seek(offset);
+      else reader.seek(offset);
+   }
+
+   /**
+    * Read on to the next event in the trace, of pid only if it is not
+    * null.  The lines or records of other pids are passed over without
+    * being parsed.
+    * @return the event, or null at the end of the trace
+    */
+   private OSEvent nextEvent(Integer pid) throws IOException {
+      if (binary != null) {
+         while (binary.next()) {
+            if (pid != null && binary.pid() != pid.intValue()) {
+               binary.skip();
+               continue;
             }
+            OSEvent ev = binary.event();
+            noteEvent(ev);
+            return ev;
          }
-         else if (syscall.equals("seek")) {
-            hm.put("event_number", OSEvent.I_SYSCALL_SEEK);
-            hm.put("fd", new Integer(args.substring(0, args.indexOf(',')).trim()));
-            args = args.substring(args.indexOf(',')+1);
-            while (args.startsWith(" ")) args = args.substring(1);
-            String whence = args.substring(0, args.indexOf(',')).trim();
-            if (whence.equals("SEEK_SET"))
-               hm.put("whence", new Integer(VFS.SEEK_SET));
-            else if (whence.equals("SEEK_CUR"))
-               hm.put("whence", new Integer(VFS.SEEK_CUR));
-            else if (whence.equals("SEEK_END"))
-               hm.put("whence", new Integer(VFS.SEEK_END));
-            args = args.substring(args.indexOf(',')+1);
-            while (args.startsWith(" ")) args = args.substring(1);
-            hm.put("offset", new Integer(args));
-         }
-         else 
-            return null;
-         if (!hm.containsKey("ticks")) {
-            hm.put("ticks", new Integer(1));
-         }
-         return hm;
+         return null;
       }
-      catch (Exception e) {
-         e.printStackTrace();
+      while (reader.nextLine()) {
+         if (isComment()) continue;
+         if (pid != null && linePid() != pid.intValue()) continue;
+         OSEvent ev = parseTrace();
+         if (ev != null) return ev;
+      }
+      return null;
+   }
+
+   /** @return the pid the line just read starts with, without parsing the rest */
+   static private int linePid() {
+      char[] line = reader.line();
+      int len = reader.lineLength();
+      int i = 0;
+      while (i < len && line[i] == ' ') i++;
+      boolean negative = (i < len && line[i] == '-');
+      if (negative) i++;
+      int pid = 0;
+      for (; i < len && line[i] != ' '; i++) {
+         char c = line[i];
+         if (c < '0' || c > '9') return Integer.MIN_VALUE;
+         pid = pid * 10 + (c - '0');
+      }
+      return negative ? -pid : pid;
+   }
+
+   static private boolean isComment() {
+      return reader.lineLength() > 0 && reader.line()[0] == '#';
+   }
+
+   /** make an event of the line just read, or null if it is not one */
+   private OSEvent parseTrace() {
+      try {
+         OSEvent ev = parser.parse(reader.line(), 0, reader.lineLength());
+         if (ev != null) noteEvent(ev);
+         return ev;
+      }
+      catch (TraceParser.BadLine e) {
+         if (!reparsing)
+            e.printStackTrace();
       }
       return null;
    }
 	
+   /** keep the pid of a proc_create, for cat_rc */
+   private void noteEvent(OSEvent ev) {
+      if (ev.getEventNumber() == OSEvent.SYSCALL_PROC_CREATE && !reparsing)
+         proc_list.add(new Integer(ev.getNewPid()));
+   }
+	
    public OSEvent readTraceFileLine() {
-      String line = null;
       try {
-         while (tfile.ready()) {
-            line = tfile.readLine();
-            if (line.startsWith("#")) continue;
-            HashMap hm = parseTrace(line);
-            if (hm == null)
-               continue;
-            return new OSEvent(hm);
-         }
-         tfile.close();
+         OSEvent ev = nextEvent(null);
+         if (ev != null)
+            return ev;
+         if (binary != null) binary.close();
+         else reader.close();
          trace_exhausted = true;
       } catch (FileNotFoundException e) {
          System.err.println(e.getMessage());
@@ -316,7 +374,11 @@ public class ProcessTrace {
       OSEvent ev = null;
       if(fname != null && fname.length() > 0) {
          try {
-            tfile = new BufferedReader(new FileReader(fname), 512);
+            binary = null;
+            if (BinaryTraceReader.isBinary(fname))
+               binary = new BinaryTraceReader(fname);
+            else
+               reader = new TraceReader(fname);
          }
          catch(Exception e) {
             System.err.println("Error opening file " + fname);
@@ -340,23 +402,30 @@ public class ProcessTrace {
       if (ev == null) return;
       Integer pid = new Integer(ev.pid());
       if(pending.containsKey(pid) == false) {
-         //Dbg.println("pt", "pending_put creating set for pid " + pid);
-         //Dbg.println("pt", "\tputting - " + ev.toString());
+         //Dbg.println(Dbg.PT, "pending_put creating set for pid " + pid);
+         //Dbg.println(Dbg.PT, "\tputting - " + ev.toString());
          pending.put(pid, new TreeSet());
       }
-      ev.set_time(trace_index++);
+      ev.set_time(trace_index++, EVENT_TIME);
       ((TreeSet)pending.get(pid)).add(ev);
    }
 	
    static private OSEvent pending_get(Integer pid) {
       TreeSet ts = (TreeSet)pending.get(pid);
+      if(ts != null && ts.isEmpty() && stream != null)
+         stream.refill(pid, ts);
       if(ts != null
          && !ts.isEmpty()) {
          OSEvent ev = (OSEvent)ts.first();
          ts.remove(ev);
+         // Look ahead, so the process goes when its last event does
+         if(ts.isEmpty() && stream != null)
+            stream.refill(pid, ts);
          if(ts.isEmpty()) {
             /* Kill Process */
             pending.remove(pid);
+            if(stream != null)
+               cursors.remove(pid);
          }
          return ev;
       }
@@ -392,8 +461,6 @@ public class ProcessTrace {
 	
    // concatenate all the read check files into one big file and remove rc.pid
    void cat_rc() {
-      FileOutputStream file = null;
-      ListOfFiles rcs;
       int current=0;
 		
       File f;
@@ -412,24 +479,31 @@ public class ProcessTrace {
       if (proc_list.size() == 0)
          return;
 		
-		
-      rcs = new ListOfFiles(proc_list);
-		
-      SequenceInputStream s = new SequenceInputStream(rcs);
-      int c;
-		
+      // Let the channels copy the files, without their bytes passing
+      // through us
+      FileChannel out = null;
       try {
-         file = new FileOutputStream(getEnv("read_check"),false);
-         while ((c = s.read()) != -1)
-            file.write(c);
-         file.close();
+         out = new FileOutputStream(getEnv("read_check"),false).getChannel();
+         for (int i = 0; i < proc_list.size(); i++) {
+            FileChannel in = null;
+            try {
+               in = new FileInputStream(getName(proc_list, i)).getChannel();
+               long size = in.size();
+               long done = 0;
+               while (done < size)
+                  done += in.transferTo(done, size - done, out);
+            } catch (FileNotFoundException e) {
+               System.err.println("cat_rc: Can't open " + getName(proc_list, i));
+            } finally {
+               if (in != null) in.close();
+            }
+         }
       } catch (Exception e) {
          System.err.println("Error in cat_rc(): " + e.getMessage());
       }
 		
-		
       try {
-         s.close();
+         if (out != null) out.close();
       } catch (Exception e) {
          System.err.println("Error closing file in cat_rc");
       }
@@ -446,42 +520,4 @@ public class ProcessTrace {
       }
    }
 	
-   // supporting class for cat_rc()
-   public class ListOfFiles implements Enumeration {
-		
-      private LinkedList listOfFiles;
-      private int current = 0;
-		
-      public ListOfFiles(LinkedList listf) {
-         listOfFiles = listf;
-      }
-		
-      public boolean hasMoreElements() {
-         if (current < listOfFiles.size())
-            return true;
-         else
-            return false;
-      }
-		
-		
-      public Object nextElement() {
-         FileInputStream in = null;
-			
-         File f = new File(getName(listOfFiles,current));
-         while (!f.exists() && ++current<listOfFiles.size()) 
-            f = new File(getName(listOfFiles,current));
-			
-         if (hasMoreElements()){
-            String nextElement = getEnv("read_check")+"."+((Integer)listOfFiles.get(current)).toString();
-            try {
-               in = new FileInputStream(nextElement);
-            } catch (FileNotFoundException e) {
-               System.err.println("ListOfFiles: Can't open " + nextElement);
-            }
-         }
-         current++;
-         return in;
-      }
-   }
-	
 }
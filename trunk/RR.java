@@ -41,7 +41,8 @@ public class RR implements IScheduler {
 
  
 	public void quantumExpired(Integer pid, int ticks_given) {
-		Dbg.println("sc", pid.intValue() + " " + ticks_given);
+		if (Dbg.isEnabled(Dbg.SC))
+			Dbg.println(Dbg.SC, pid.intValue() + " " + ticks_given);
 		run_q.add(pid);
 	} 
 
@@ -69,7 +70,8 @@ public class RR implements IScheduler {
 
  
 	public void processBlocked(Integer pid, int burst_given) {
-		Dbg.println("sc", pid.intValue() + " " + burst_given);
+		if (Dbg.isEnabled(Dbg.SC))
+			Dbg.println(Dbg.SC, pid.intValue() + " " + burst_given);
 		return;
 	}
 
@@ -80,7 +82,8 @@ public class RR implements IScheduler {
 
  
 	public void quantumInterrupted(Integer pid, int ticks_given) {
-		Dbg.println("sc", pid.intValue() + " " + ticks_given);
+		if (Dbg.isEnabled(Dbg.SC))
+			Dbg.println(Dbg.SC, pid.intValue() + " " + ticks_given);
 		return;
 	}
 	
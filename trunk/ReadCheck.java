@@ -8,12 +8,31 @@
  * Copyright (c) 2004-09 University of Texas at Austin
  */
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
 
 public class ReadCheck {
    FileOutputStream file = null;
+   // Hex waiting to be written
+   private byte[] buf = new byte[3 * 4096 * 4];
+   private int count = 0;
 
-   // We append to the file to give up-to-date partial results.
+   // One open file per pid, from its first read until it exits
+   private static HashMap<Integer,ReadCheck> open = new HashMap<Integer,ReadCheck>();
+   // " %02x" of each byte value
+   private static final byte[] HEX = new byte[3 * 256];
+   static {
+      String digits = "0123456789abcdef";
+      for (int b = 0; b < 256; b++) {
+         HEX[3 * b] = ' ';
+         HEX[3 * b + 1] = (byte)digits.charAt(b >> 4);
+         HEX[3 * b + 2] = (byte)digits.charAt(b & 0xf);
+      }
+   }
+
+   // We append to the file, so a pid that reads again after it was
+   // closed carries on where it left off.
    public ReadCheck(int pid) {
       try {
          file = new FileOutputStream(ProcessTrace.getEnv("read_check")+"."+pid ,true);
@@ -27,16 +46,26 @@ public class ReadCheck {
    public void printBytes(byte[] buffer) {
       try {
          for (int i = 0; i < buffer.length; i++) {
-            file.write(String.format(" %02x", buffer[i]).getBytes());
+            if (count == buf.length) flush();
+            int h = 3 * (buffer[i] & 0xff);
+            buf[count++] = HEX[h];
+            buf[count++] = HEX[h + 1];
+            buf[count++] = HEX[h + 2];
          }
       }
       catch (Exception e) {
          e.printStackTrace();
       }
    }
-   
+
+   private void flush() throws IOException {
+      file.write(buf, 0, count);
+      count = 0;
+   }
+
    private void close() {
       try {
+         flush();
          file.close();
       }
       catch (Exception e) {
@@ -48,8 +77,25 @@ public class ReadCheck {
    // Call this function with the pid of the reading process and the data read
    // You can call it for each block read or for all the data at once.
    public static void write(int pid, byte[] buffer) {
-      ReadCheck instance = new ReadCheck(pid);
+      Integer key = Integer.valueOf(pid);
+      ReadCheck instance = open.get(key);
+      if (instance == null) {
+         instance = new ReadCheck(pid);
+         open.put(key, instance);
+      }
       instance.printBytes(buffer);
-      instance.close();
+   }
+
+   /** write out and close the file of pid, when it exits */
+   public static void close(int pid) {
+      ReadCheck instance = open.remove(Integer.valueOf(pid));
+      if (instance != null) instance.close();
+   }
+
+   /** write out and close every file, at the end of the run */
+   public static void closeAll() {
+      for (Iterator<ReadCheck> i = open.values().iterator(); i.hasNext(); )
+         i.next().close();
+      open.clear();
    }
 }
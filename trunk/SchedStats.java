@@ -20,10 +20,11 @@ public class SchedStats {
 			int executed_ticks, 
 			int execution_burst_count, 
 			int context_switches) {
-		Dbg.println("sc", "Process " + pid + " completed at time " + current_time + 
-    			", used " + executed_ticks + " ticks, and required " +
-				context_switches + " context switches for its " + execution_burst_count + 
-				" CPU bursts.");
+		if (Dbg.isEnabled(Dbg.SC))
+			Dbg.println(Dbg.SC, "Process " + pid + " completed at time " + current_time + 
+					", used " + executed_ticks + " ticks, and required " +
+					context_switches + " context switches for its " + execution_burst_count + 
+					" CPU bursts.");
     	duration += current_time -started_time;
     	cpu_bursts += execution_burst_count;
     	dispatches += context_switches;
@@ -12,13 +12,45 @@ import java.util.HashMap;
 import java.util.Iterator;
 
 public class Stat {
-   private static HashMap hm = new HashMap();
+   // Counters by name, and histograms by name
+   private static HashMap<String,Counter> hm = new HashMap<String,Counter>();
+   private static HashMap<String,Histogram> histograms =
+      new HashMap<String,Histogram>();
+
+   /**
+    * A named count.  Code that counts often keeps the Counter from
+    * counter() rather than looking it up by name every time.
+    */
+   static final class Counter {
+      private long value;
+      void inc() { value++; }
+      void add(long v) { value += v; }
+      long get() { return value; }
+      public String toString() { return Integer.toString((int)value); }
+   }
+
+   /** @return the counter named key, made at zero if there is none */
+   public static Counter counter(String key) {
+      Counter c = hm.get(key);
+      if (c == null) {
+         c = new Counter();
+         hm.put(key, c);
+      }
+      return c;
+   }
+
+   /** @return the histogram named key, made empty if there is none */
+   public static Histogram histogram(String key) {
+      Histogram h = histograms.get(key);
+      if (h == null) {
+         h = new Histogram(key);
+         histograms.put(key, h);
+      }
+      return h;
+   }
    
    public static void add(String key, int val) {
-      Integer i = (Integer)hm.get(key);
-      if (i == null)
-         i = new Integer(0);
-      hm.put(key, new Integer(i.intValue() + val));
+      counter(key).add(val);
    }
 
    public static void inc(String key) {
@@ -26,23 +58,29 @@ public class Stat {
    }
    
    public static int getInt(String key) {
-      Integer i = (Integer)hm.get(key);
-      if (i == null)
+      Counter c = hm.get(key);
+      if (c == null)
          return 0;
-      return i.intValue();
+      return (int)c.get();
    }
    
    public static void putInt(String key, int v) {
-      hm.put(key, new Integer(v));
+      Counter c = counter(key);
+      c.value = v;
    }
    
    public static void print(PrintStream out) {
-      Iterator i = hm.keySet().iterator();
+      Iterator<String> i = hm.keySet().iterator();
       for (;i.hasNext();) {
-         String key = (String)i.next();
+         String key = i.next();
          Object o = hm.get(key);
          out.println(key + ": " + o.toString());
       }
+      i = histograms.keySet().iterator();
+      for (;i.hasNext();) {
+         String key = i.next();
+         out.println(key + ": " + histograms.get(key));
+      }
    }
    
    public static void print() {
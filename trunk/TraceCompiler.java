@@ -0,0 +1,143 @@
+/**
+ * class TraceCompiler
+ *
+ * Converts a text trace into the binary format BinaryTraceReader
+ * describes, so a run reads fixed fields instead of parsing every
+ * line again.  Lines are parsed by TraceParser, as ProcessTrace would:
+ * comments and unknown syscalls are dropped, and bad lines are
+ * reported here and left out.
+ *
+ *   java TraceCompiler in.tr out.trb
+ *   java TraceCompiler in.tr out.trb.gz    (gzipped)
+ *
+ * ProcessTrace tells a binary trace from a text one by its first
+ * bytes, so trace_file can name either.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TraceCompiler {
+
+   public static void main(String[] args) throws IOException {
+      if (args.length != 2) {
+         System.out.println("Usage: java TraceCompiler in.tr out.trb[.gz]");
+         System.exit(-1);
+      }
+      TraceCompiler tc = new TraceCompiler(args[1], args[1].endsWith(".gz"));
+      tc.compile(args[0]);
+      tc.close();
+      System.out.println(args[0] + ": " + tc.lines + " lines, " + tc.events
+                         + " events, " + tc.errors + " bad lines");
+   }
+
+   TraceCompiler(String fname, boolean gzip) throws IOException {
+      OutputStream file = new FileOutputStream(fname);
+      if (gzip) file = new GZIPOutputStream(file, 65536);
+      out = new BufferedOutputStream(file, 65536);
+      out.write(BinaryTraceReader.MAGIC);
+      writeUnsigned(BinaryTraceReader.VERSION);
+   }
+
+   /** append the events of the text trace fname */
+   void compile(String fname) throws IOException {
+      TraceReader reader = new TraceReader(fname);
+      try {
+         while (reader.nextLine()) {
+            lines++;
+            int len = reader.lineLength();
+            if (len > 0 && reader.line()[0] == '#') continue;
+            OSEvent ev;
+            try {
+               ev = parser.parse(reader.line(), 0, len);
+            }
+            catch (TraceParser.BadLine e) {
+               System.err.println(fname + ":" + lines + ": " + e.getMessage());
+               errors++;
+               continue;
+            }
+            if (ev != null) write(ev);
+         }
+      }
+      finally {
+         reader.close();
+      }
+   }
+
+   /** write one event as a record */
+   void write(OSEvent ev) throws IOException {
+      writeSigned(ev.pid());
+      out.write(ev.getEventNumber());
+      switch (ev.getEventNumber()) {
+      case OSEvent.SYSCALL_PROC_CREATE:
+         writeSigned(ev.getNewPid());
+         break;
+      case OSEvent.SYSCALL_COMPUTE:
+         writeSigned(ev.getData());
+         writeUnsigned(ev.getTicks());
+         break;
+      case OSEvent.SYSCALL_PROC_KILL:
+         break;
+      case OSEvent.SYSCALL_CREATE:
+         writeName(ev.getFileName());
+         break;
+      case OSEvent.SYSCALL_OPEN:
+         writeName(ev.getFileName());
+         writeUnsigned(ev.getMode());
+         writeSigned(ev.getFd());
+         break;
+      case OSEvent.SYSCALL_CLOSE:
+         writeSigned(ev.getFd());
+         break;
+      case OSEvent.SYSCALL_WRITE:
+         writeSigned(ev.getFd());
+         writeUnsigned(ev.getLength());
+         writeSigned(ev.getData());
+         break;
+      case OSEvent.SYSCALL_READ:
+         writeSigned(ev.getFd());
+         writeUnsigned(ev.getLength());
+         break;
+      case OSEvent.SYSCALL_SEEK:
+         writeSigned(ev.getFd());
+         writeSigned(ev.getWhence());
+         writeSigned(ev.getOffset());
+         break;
+      default:
+         throw new IllegalArgumentException("Not a trace event: " + ev);
+      }
+      events++;
+   }
+
+   void close() throws IOException {
+      out.close();
+   }
+
+   private void writeUnsigned(int v) throws IOException {
+      while ((v & ~0x7f) != 0) {
+         out.write((v & 0x7f) | 0x80);
+         v >>>= 7;
+      }
+      out.write(v);
+   }
+
+   private void writeSigned(int v) throws IOException {
+      writeUnsigned((v << 1) ^ (v >> 31));
+   }
+
+   private void writeName(String name) throws IOException {
+      writeUnsigned(name.length());
+      for (int i = 0; i < name.length(); i++)
+         out.write(name.charAt(i));
+   }
+
+   private OutputStream out;
+   private TraceParser parser = new TraceParser();
+   long lines;
+   long events;
+   long errors;
+}
@@ -0,0 +1,265 @@
+/**
+ * class TraceParser
+ *
+ * Turns trace lines into OSEvents in one pass over their characters.
+ * Numbers are read in place and syscall names are matched against a
+ * fixed table, so a line costs nothing beyond its event (and a file
+ * name, for create and open).  The rules are the ones ProcessTrace
+ * always used: see the comments on each syscall.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+public class TraceParser {
+
+   /** A line that names a syscall but cannot be made into an event */
+   static class BadLine extends Exception {
+      private static final long serialVersionUID = 1L;
+      BadLine(String message) { super(message); }
+   }
+
+   // Syscall names as they appear in traces, in any case
+   static private final String[] names = {
+      "proc_create", "compute", "proc_kill", "create", "open", "close",
+      "write", "read", "seek"
+   };
+   static private final int[] events = {
+      OSEvent.SYSCALL_PROC_CREATE, OSEvent.SYSCALL_COMPUTE,
+      OSEvent.SYSCALL_PROC_KILL, OSEvent.SYSCALL_CREATE,
+      OSEvent.SYSCALL_OPEN, OSEvent.SYSCALL_CLOSE, OSEvent.SYSCALL_WRITE,
+      OSEvent.SYSCALL_READ, OSEvent.SYSCALL_SEEK
+   };
+   static private final String[] modes = {
+      "O_RDONLY", "O_WRONLY", "O_RDWR", "O_APPEND"
+   };
+   static private final int[] mode_bits = {
+      VFS.O_RDONLY, VFS.O_WRONLY, VFS.O_RDWR, VFS.O_APPEND
+   };
+   static private final String[] whences = {
+      "SEEK_SET", "SEEK_CUR", "SEEK_END"
+   };
+   static private final int[] whence_values = {
+      VFS.SEEK_SET, VFS.SEEK_CUR, VFS.SEEK_END
+   };
+
+   /** parse a line held in a String */
+   OSEvent parse(String line) throws BadLine {
+      if (line.length() > buf.length)
+         buf = new char[Math.max(line.length(), 2 * buf.length)];
+      line.getChars(0, line.length(), buf, 0);
+      return parse(buf, 0, line.length());
+   }
+
+   /**
+    * parse the line in c[off..off+len), without its end of line
+    * @return the event, or null if the line is not a syscall we know
+    */
+   OSEvent parse(char[] c, int off, int len) throws BadLine {
+      int end = off + len;
+      // pid, after any spaces, up to the next space
+      int i = skipSpaces(c, off, end);
+      int sp = indexOf(c, i, end, ' ');
+      if (sp < 0) throw new BadLine("No pid in trace line");
+      int pid = parseInt(c, i, sp, 10);
+      // the syscall name runs from just after that space to '(', and
+      // the arguments from there to the first ')'
+      int name = sp + 1;
+      int open = indexOf(c, name, end, '(');
+      int close = indexOf(c, name, end, ')');
+      if (open < 0 || close < open)
+         throw new BadLine("No syscall in trace line");
+      int a = open + 1;
+      int syscall = -1;
+      for (int k = 0; k < names.length && syscall < 0; k++) {
+         if (matches(c, name, open, names[k], true))
+            syscall = events[k];
+      }
+      if (syscall < 0) return null;
+
+      OSEvent ev = new OSEvent(syscall, pid);
+      int comma;
+      switch (syscall) {
+      case OSEvent.SYSCALL_PROC_CREATE:
+         // proc_create(pid), nothing around the number
+         ev.setNewPid(parseInt(c, a, close, 10));
+         break;
+      case OSEvent.SYSCALL_COMPUTE:
+         // compute(data, ticks)
+         comma = indexOf(c, a, close, ',');
+         if (comma < 0)
+            throw new BadLine("Compute directive must have valid values for data & ticks");
+         ev.setData(parseTrimmed(c, a, comma, 10));
+         ev.setTicks(parseInt(c, skipSpaces(c, comma + 1, close), close, 10));
+         if (ev.getTicks() < 1)
+            throw new BadLine("Compute directive must have a positive value for ticks");
+         break;
+      case OSEvent.SYSCALL_PROC_KILL:
+         // proc_kill(pid), of the process itself
+         ev.setKillPid(parseInt(c, a, close, 10));
+         if (pid != ev.getKillPid())
+            throw new BadLine("A process can only kill itself!");
+         break;
+      case OSEvent.SYSCALL_CREATE: {
+         // create(name), and the name may be in quotes
+         int from = a, to = close;
+         if (from < to && c[from] == '"') from++;
+         if (from < to && c[to - 1] == '"') to--;
+         ev.setFileName(new String(c, from, to - from));
+         break;
+      }
+      case OSEvent.SYSCALL_OPEN: {
+         // open(name, MODE|MODE...) = fd; only a leading quote is
+         // taken off the name
+         comma = indexOf(c, a, close, ',');
+         if (comma < 0) throw new BadLine("Open directive must have a file name and mode");
+         int from = a;
+         if (from < comma && c[from] == '"') from++;
+         int mode = 0;
+         int m = comma + 1;
+         while (true) {
+            int bar = indexOf(c, m, close, '|');
+            if (bar < 0) bar = close;
+            // An empty mode ends the list
+            if (bar == m) break;
+            int t0 = trimStart(c, m, bar), t1 = trimEnd(c, t0, bar);
+            for (int k = 0; k < modes.length; k++) {
+               if (matches(c, t0, t1, modes[k], false))
+                  mode |= mode_bits[k];
+            }
+            if (bar == close) break;
+            m = bar + 1;
+         }
+         ev.setFileName(new String(c, from, comma - from));
+         ev.setMode(mode);
+         ev.setFd(parseTrimmed(c, afterEquals(c, name, end), end, 10));
+         break;
+      }
+      case OSEvent.SYSCALL_CLOSE:
+         // close(fd)
+         ev.setFd(parseTrimmed(c, a, close, 10));
+         break;
+      case OSEvent.SYSCALL_WRITE: {
+         // write(fd, length) = 0xdata
+         comma = indexOf(c, a, close, ',');
+         if (comma < 0)
+            throw new BadLine("Write directive must have valid values for fd & length");
+         ev.setFd(parseTrimmed(c, a, comma, 10));
+         ev.setLength(parseTrimmed(c, comma + 1, close, 10));
+         if (ev.getLength() < 1)
+            throw new BadLine("Write directive must have a positive value for length");
+         int d = trimStart(c, afterEquals(c, name, end), end);
+         if (end - d < 2 || c[d] != '0' || (c[d + 1] != 'x' && c[d + 1] != 'X'))
+            throw new BadLine("Write directive must have a valid HEX data starting with 0x");
+         ev.setData(parseTrimmed(c, d + 2, end, 16));
+         break;
+      }
+      case OSEvent.SYSCALL_READ:
+         // read(fd, length)
+         comma = indexOf(c, a, close, ',');
+         if (comma < 0)
+            throw new BadLine("Read directive must have valid values for fd & length");
+         ev.setFd(parseTrimmed(c, a, comma, 10));
+         ev.setLength(parseTrimmed(c, comma + 1, close, 10));
+         if (ev.getLength() < 1)
+            throw new BadLine("Read directive must have a positive value for length");
+         break;
+      case OSEvent.SYSCALL_SEEK: {
+         // seek(fd, WHENCE, offset); an unknown whence is left unset
+         comma = indexOf(c, a, close, ',');
+         int comma2 = (comma < 0) ? -1 : indexOf(c, comma + 1, close, ',');
+         if (comma2 < 0)
+            throw new BadLine("Seek directive must have fd, whence & offset");
+         ev.setFd(parseTrimmed(c, a, comma, 10));
+         int t0 = trimStart(c, comma + 1, comma2), t1 = trimEnd(c, t0, comma2);
+         for (int k = 0; k < whences.length; k++) {
+            if (matches(c, t0, t1, whences[k], false))
+               ev.setWhence(whence_values[k]);
+         }
+         ev.setOffset(parseInt(c, skipSpaces(c, comma2 + 1, close), close, 10));
+         break;
+      }
+      }
+      if (ev.getTicks() == OSEvent.UNSET) {
+         ev.setTicks(1);
+      }
+      return ev;
+   }
+
+   static private int indexOf(char[] c, int from, int to, char ch) {
+      for (int i = from; i < to; i++)
+         if (c[i] == ch) return i;
+      return -1;
+   }
+
+   /** @return where the result after '=' starts, or from if there is no '=' */
+   static private int afterEquals(char[] c, int from, int to) {
+      int eq = indexOf(c, from, to, '=');
+      return (eq < 0) ? from : eq + 1;
+   }
+
+   /** spaces only, as the trace format has always been read */
+   static private int skipSpaces(char[] c, int from, int to) {
+      while (from < to && c[from] == ' ') from++;
+      return from;
+   }
+
+   /** whitespace and control characters, as String.trim */
+   static private int trimStart(char[] c, int from, int to) {
+      while (from < to && c[from] <= ' ') from++;
+      return from;
+   }
+
+   static private int trimEnd(char[] c, int from, int to) {
+      while (to > from && c[to - 1] <= ' ') to--;
+      return to;
+   }
+
+   static private boolean matches(char[] c, int from, int to, String s,
+                                  boolean ignoreCase) {
+      if (to - from != s.length()) return false;
+      for (int i = 0; i < s.length(); i++) {
+         char ch = c[from + i];
+         if (ignoreCase) ch = Character.toLowerCase(ch);
+         if (ch != s.charAt(i)) return false;
+      }
+      return true;
+   }
+
+   static private int parseTrimmed(char[] c, int from, int to, int radix)
+      throws BadLine {
+      from = trimStart(c, from, to);
+      return parseInt(c, from, trimEnd(c, from, to), radix);
+   }
+
+   /** Integer.parseInt over c[from..to), without making a String */
+   static private int parseInt(char[] c, int from, int to, int radix)
+      throws BadLine {
+      if (from >= to) throw badNumber(c, from, to);
+      boolean negative = false;
+      int i = from;
+      if (c[i] == '-' || c[i] == '+') {
+         negative = (c[i] == '-');
+         if (++i == to) throw badNumber(c, from, to);
+      }
+      // Accumulate negatively so Integer.MIN_VALUE fits
+      int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+      int multmin = limit / radix;
+      int result = 0;
+      for (; i < to; i++) {
+         int digit = Character.digit(c[i], radix);
+         if (digit < 0 || result < multmin)
+            throw badNumber(c, from, to);
+         result *= radix;
+         if (result < limit + digit)
+            throw badNumber(c, from, to);
+         result -= digit;
+      }
+      return negative ? result : -result;
+   }
+
+   static private BadLine badNumber(char[] c, int from, int to) {
+      return new BadLine("For input string: \"" + new String(c, from, to - from) + "\"");
+   }
+
+   // Holds lines handed over as Strings
+   private char[] buf = new char[256];
+}
@@ -0,0 +1,98 @@
+/**
+ * class TraceReader
+ *
+ * A buffered line reader over a trace file that can seek, so the
+ * streaming mode of ProcessTrace can go back to where each process
+ * left off.  Lines end in \n, \r or \r\n as for BufferedReader.  Traces
+ * are plain ASCII, so bytes are taken as ISO-8859-1.  Binary traces
+ * are read a byte at a time through the same buffer.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TraceReader {
+
+   TraceReader(String fname) throws IOException {
+      file = new RandomAccessFile(fname, "r");
+   }
+
+   /** @return the offset of the next line */
+   long position() {
+      return buf_start + pos;
+   }
+
+   /** the next line read starts at offset, which should start a line */
+   void seek(long offset) {
+      if (offset >= buf_start && offset <= buf_start + limit) {
+         pos = (int)(offset - buf_start);
+      } else {
+         buf_start = offset;
+         pos = 0;
+         limit = 0;
+      }
+   }
+
+   /**
+    * Read the next line, without its end, into line().  The array is
+    * reused, so it holds the line only until the next call.
+    * @return false at end of file
+    */
+   boolean nextLine() throws IOException {
+      if (pos == limit && !fill()) return false;
+      length = 0;
+      while (true) {
+         while (pos < limit) {
+            byte b = buf[pos++];
+            if (b == '\n') return true;
+            if (b == '\r') {
+               if ((pos < limit || fill()) && buf[pos] == '\n') pos++;
+               return true;
+            }
+            if (length == line.length) {
+               char[] longer = new char[2 * line.length];
+               System.arraycopy(line, 0, longer, 0, length);
+               line = longer;
+            }
+            line[length++] = (char)(b & 0xff);
+         }
+         // The line runs past the buffer
+         if (!fill()) return true;
+      }
+   }
+
+   /** @return the next byte, for binary traces, or -1 at end of file */
+   int read() throws IOException {
+      if (pos == limit && !fill()) return -1;
+      return buf[pos++] & 0xff;
+   }
+
+   char[] line() { return line; }
+   int lineLength() { return length; }
+
+   void close() throws IOException {
+      file.close();
+   }
+
+   /** read the bytes after the buffer into it, @return false at end of file */
+   private boolean fill() throws IOException {
+      buf_start += limit;
+      pos = 0;
+      limit = 0;
+      file.seek(buf_start);
+      int n = file.read(buf);
+      if (n > 0) limit = n;
+      return n > 0;
+   }
+
+   private RandomAccessFile file;
+   private byte[] buf = new byte[8192];
+   // File offset of buf[0]
+   private long buf_start = 0;
+   private int pos = 0;
+   private int limit = 0;
+   // The last line read by nextLine
+   private char[] line = new char[256];
+   private int length = 0;
+}
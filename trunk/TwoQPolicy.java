@@ -0,0 +1,101 @@
+/**
+ * class TwoQPolicy
+ *
+ * The full version of 2Q (Johnson and Shasha, VLDB '94).  Blocks seen
+ * for the first time go to a FIFO (A1in); blocks evicted from A1in are
+ * remembered by number in a ghost FIFO (A1out).  Only a block that is
+ * referenced again while it is in A1out is promoted to the LRU list
+ * (Am), so a sequential scan flows through A1in without flushing the
+ * hot blocks out of Am.
+ *
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+public class TwoQPolicy implements EvictionPolicy {
+   private static final int NONE = 0;
+   private static final int A1IN = 1;
+   private static final int AM = 2;
+
+   private PageList a1in;
+   private PageList am;
+   private GhostList a1out;
+   private int[] where;
+   private int[] blocks;
+   private boolean[] held;
+   private int kin;
+
+   public TwoQPolicy(int npages) {
+      a1in = new PageList(npages);
+      am = new PageList(npages);
+      // Sizes recommended by the paper: Kin = 25%, Kout = 50%
+      kin = Math.max(1, npages / 4);
+      a1out = new GhostList(Math.max(1, npages / 2));
+      where = new int[npages];
+      blocks = new int[npages];
+      held = new boolean[npages];
+   }
+
+   public String name() {
+      return "2q";
+   }
+
+   public void insert(int page, int block) {
+      remove(page);
+      blocks[page] = block;
+      if (a1out.contains(block)) {
+         a1out.remove(block);
+         where[page] = AM;
+         am.addLast(page);
+      } else {
+         where[page] = A1IN;
+         a1in.addLast(page);
+      }
+   }
+
+   public void touch(int page) {
+      // A hit in A1in does nothing: correlated references are not promoted
+      if (where[page] == AM)
+         am.moveToLast(page);
+   }
+
+   public void remove(int page) {
+      list(page).remove(page);
+      where[page] = NONE;
+      held[page] = false;
+   }
+
+   public void setEvictable(int page, boolean evictable) {
+      if (held[page] == !evictable || where[page] == NONE)
+         return;
+      held[page] = !evictable;
+      if (evictable)
+         list(page).addLast(page);
+      else
+         list(page).remove(page);
+   }
+
+   public int evict() {
+      int page;
+      if (a1in.size() > kin || am.size() == 0) {
+         page = a1in.first();
+         if (page >= 0) {
+            a1in.remove(page);
+            a1out.add(blocks[page]);
+            where[page] = NONE;
+            return page;
+         }
+      }
+      page = am.first();
+      if (page < 0)
+         page = a1in.first();
+      if (page >= 0) {
+         list(page).remove(page);
+         where[page] = NONE;
+      }
+      return page;
+   }
+
+   private PageList list(int page) {
+      return where[page] == AM ? am : a1in;
+   }
+}
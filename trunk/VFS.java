@@ -9,7 +9,6 @@
  * Copyright (c) 2004-09 University of Texas at Austin
  */
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 
 public abstract class VFS {
    /** fixed block location */
@@ -48,6 +47,12 @@ public abstract class VFS {
 	
    protected OSInterface os;
    protected BufferCache bufferCache;
+   protected int readaheadMax;   // largest readahead window in blocks, 0 is off; async only
+   protected int preallocMax;    // blocks set aside per file as it grows, 0 is off
+
+   private static final Stat.Counter blocksAllocated = Stat.counter("blocks_allocated");
+   // data blocks right after the file's previous one
+   private static final Stat.Counter blocksContiguous = Stat.counter("blocks_contiguous");
 	
    /** 
     * Array of openfiles per each device
@@ -56,13 +61,22 @@ public abstract class VFS {
     */
    public File[] openFiles;
 
+   // The pinned metadata blocks, decoded on first use and kept, and
+   // whether each has changed since it was last put in its page
+   private SuperBlock superBlock;
+   private BitMapBlock usedBlockBitmap;
+   private BitMapBlock inodeBitmap;
+   private boolean superBlockDirty;
+   private boolean usedBlockBitmapDirty;
+   private boolean inodeBitmapDirty;
+   // The directory blocks, read in at startup, which note their changes
+   private Directory directory = new Directory();
+
    static public VFS VFSFactory(boolean sync, BufferCache _bc, OSInterface _os) {
       if(sync) {
          return new VFSSync(_bc, _os);
       } else {
-         // We do not distribute the async version
-         // return new VFSAsync(_bc, _os);
-         return null;
+         return new VFSAsync(_bc, _os);
       }
    }
    protected VFS(BufferCache _bc, OSInterface _os) {
@@ -72,6 +86,8 @@ public abstract class VFS {
       openFiles = new File[MAX_OPEN_FILE];
       for (int i = 0; i < openFiles.length; i++)
          openFiles[i] = null;
+      readaheadMax = Integer.parseInt(ProcessTrace.getEnv("readahead_max"));
+      preallocMax = Integer.parseInt(ProcessTrace.getEnv("prealloc_blocks"));
 		
    }
 	
@@ -88,121 +104,137 @@ public abstract class VFS {
 
    /**
     * read superblock from buffer cache
-    * @return superblock object
-    * //write me
+    * @return superblock object, the same one every time
     */
    	public SuperBlock getSuperBlock() {
-		SuperBlock sb = null;
-		MemPage superblock = getBufferCache().readSuperBlock();
-		sb = new SuperBlock(superblock.get_bytes());
-		writeSuperBlock(sb);
-		return sb;
+		if (superBlock == null)
+			superBlock = new SuperBlock(getBufferCache().readSuperBlock().get_bytes());
+		return superBlock;
    }
 
    /**
     * read used block bitmap from buffer cache
-    * @return used block bitmap object
-    *      // Write me
+    * @return used block bitmap object, the same one every time
     */
    	public BitMapBlock getUsedBlockBitmap() {
-      		BitMapBlock bmb = null;
-		MemPage usedblockbitmap = getBufferCache().readUsedBlockBitmap();
-		bmb = new BitMapBlock(usedblockbitmap.get_bytes());	
-		writeUsedBlockBitmap(bmb);
-      		return bmb;
+		if (usedBlockBitmap == null)
+			usedBlockBitmap = new BitMapBlock(getBufferCache().readUsedBlockBitmap().get_bytes());
+      		return usedBlockBitmap;
    	}
 
    /**
     * read inode bitmap from buffer cache
-    * @return inode bitmap object
-    *      // Write me
+    * @return inode bitmap object, the same one every time
     */
 	public BitMapBlock getInodeBitmap() {
-      		BitMapBlock bmb = null;
-		MemPage inodebitmap = getBufferCache().readInodeBitmap(BLK_INODEBITMAP);
-		bmb = new BitMapBlock(inodebitmap.get_bytes());
-		writeInodeBitmap(bmb);
-      		return bmb;
+		if (inodeBitmap == null)
+			inodeBitmap = new BitMapBlock(getBufferCache().readInodeBitmap(BLK_INODEBITMAP).get_bytes());
+      		return inodeBitmap;
    	}
 
    /**
-    * read directory inode from buffer cache
+    * read directory inode from buffer cache.  The block also holds the
+    * inodes of files, which are written straight to the cache, so this
+    * one is decoded afresh every time.
     * @return Inode object
     *
     */
 	public Inode getDirInode() {
-		Inode inode = null;
 		MemPage dirinode = getBufferCache().readDirInode(BLK_DIRINODE);
-		inode = new Inode(getSuperBlock(), dirinode.get_bytes(), 0);
-		writeDirInode(inode);
-		return inode;
+		return new Inode(getSuperBlock(), dirinode.get_bytes(), 0);
 	}
 
    /**
-    * read directory data block from buffer cache
-    * @return DirectoryBlock object
-    *      // Write me
+    * the directory, whose blocks are read in by startup()
+    * @return Directory object, the same one every time
     */
-   	public DirectoryBlock getDirDataBlock(){
-      		DirectoryBlock db = null;
-		MemPage dirdatablock = getBufferCache().readDirDataBlock(BLK_DIRDATABLOCK);
-		db = new DirectoryBlock(dirdatablock.get_bytes());
-		writeDirDataBlock(db);
-		return db;
+   	public Directory getDirectory(){
+		return directory;
    	}
 
+   /**
+    * Decode the directory block whose page has just been read, and read
+    * the blocks chained after it.  When a read has to wait for the disk,
+    * its interrupt carries on from there through initializeCallback.
+    * @param block block number of the directory block
+    */
+	private void readDirChain(int block) {
+		while (true) {
+			DirectoryBlock db = new DirectoryBlock(getBufferCache().readDirDataBlock(block).get_bytes());
+			directory.add(block, db);
+			block = db.getNext();
+			if (block == 0)
+				return;
+			OSEvent ev = createEvent(OSEvent.NOT_AN_EVENT);
+			ev.setNextState(ST_LAST_INITIALIZE);
+			bufferCache.read(block, ev);
+			if (bufferCache.isPending(block))
+				return;
+		}
+	}
+
 
 
 /*------------------- writing to buffer cache------------------
-* Notes: DONE
-*
+* Notes: The objects above stay decoded for the whole run, so writing
+* one back only notes that it changed.  flushMetadata() serializes the
+* changed ones into their pinned pages before the cache is flushed.
 */
 
 
    /**
     * write superblock to buffer cache
     * @param sb superblock object to write
-    *      // Write me
     */
    private void writeSuperBlock(SuperBlock sb) {
-	writeBlock(BLK_SUPERBLOCK, sb.getBytes());
+	superBlock = sb;
+	superBlockDirty = true;
    }
 
    /**
     * write inode bitmap to buffer cache
     * @param ib inode bitmap object to write
-    *      // Write me
     */
    protected void writeInodeBitmap(BitMapBlock ib) {
-	writeBlock(BLK_INODEBITMAP, ib.getBytes());
+	inodeBitmap = ib;
+	inodeBitmapDirty = true;
    }
 	
    /**
     * write used block bitmap to buffer cache
     * @param ubb used block bitmap object to write
-    *      // Write me
     */
    private void writeUsedBlockBitmap(BitMapBlock ubb) {
-	writeBlock(BLK_USEDBLOCKBITMAP, ubb.getBytes());
+	usedBlockBitmap = ubb;
+	usedBlockBitmapDirty = true;
    }
 	
    /**
     * write inode which type is Inode.DIR to buffer cache
-    * (there is only one directory inode)
+    * (there is only one directory inode).  Only its own slot of the
+    * block is written, the rest holds the inodes of files.
     * @param dirInode inode objet to write
-    *      // Write me
     */
    private void writeDirInode(Inode dirInode) {
-	writeBlock(BLK_DIRINODE, dirInode.getBytes());
+	byte[] bytes = dirInode.getBytes();
+	MemPage page = getBufferCache().readDirInode(BLK_DIRINODE);
+	System.arraycopy(bytes, 0, page.get_bytes(), 0, bytes.length);
+	getBufferCache().markDirty(BLK_DIRINODE, createWritebackEvent());
    }
 	
-   /**
-    * write directory data block to buffer cache
-    * @param db directory block object
-    *      // Write me
-    */
-   private void writeDirDataBlock(DirectoryBlock db) {
-	writeBlock(BLK_DIRDATABLOCK, db.getBytes());
+   /** serialize the changed metadata blocks into their pages */
+   protected void flushMetadata() {
+	if (superBlockDirty)
+		writeBlock(BLK_SUPERBLOCK, superBlock.getBytes());
+	if (usedBlockBitmapDirty)
+		writeBlock(BLK_USEDBLOCKBITMAP, usedBlockBitmap.getBytes());
+	if (inodeBitmapDirty)
+		writeBlock(BLK_INODEBITMAP, inodeBitmap.getBytes());
+	for (int i = 0; i < directory.numBlocks(); i++)
+		if (directory.isDirty(i))
+			writeBlock(directory.blockNum(i), directory.block(i).getBytes());
+	superBlockDirty = usedBlockBitmapDirty = inodeBitmapDirty = false;
+	directory.clean();
    }
 
 
@@ -213,19 +245,138 @@ public abstract class VFS {
 
 
    /**
-    * Allocate a disk block and return the block number
+    * Allocate a disk block and return the block number.  The bitmap
+    * has a bit for more blocks than a small disk has, and those past
+    * its end are left clear, so only blocks below the end are taken.
     * @return block number that has been allocated,
     *         -1, on error
     */
    protected int balloc(){
-      Dbg.println("vfs", "VFS.balloc()");
+      Dbg.println(Dbg.VFS, "VFS.balloc()");
       // Write me, witten?
 		BitMapBlock usedBlockBitmap = getUsedBlockBitmap();
-      int blockNum = usedBlockBitmap.allocate();
+      int blockNum = usedBlockBitmap.allocateRun(1, getSuperBlock().getNumBlocks());
 		writeUsedBlockBitmap(usedBlockBitmap);
 		return blockNum;
    }
 
+   /**
+    * Allocate the next data block of a file.  The block after the
+    * file's last one is preferred, so a file written in order is laid
+    * out in order.  When that is taken, the rest of the write goes in
+    * the first free run that holds it, or failing that at the first
+    * free block.  The free blocks that follow, up to what the write
+    * needs or prealloc_blocks if more, are set aside for the file's
+    * next blocks, so files written a bit at a time side by side do not
+    * interleave.  Close gives back what the file did not use.
+    * 
+    * @param file the open file that is growing
+    * @param end the byte offset the write will reach
+    * @return block number that has been allocated,
+    *         -1, on error
+    */
+   protected int balloc(File file, int end) {
+      Inode inode = file.getInode();
+      int used = inode.getDataBlocksUsed();
+      int prev = (used > 0) ? inode.getDataBlock(used - 1) : -1;
+      int blockNum;
+      if (preallocMax == 0) {
+         blockNum = balloc();
+      } else if (file.getPreallocNext() < file.getPreallocEnd()) {
+         blockNum = file.getPreallocNext();
+         file.setPrealloc(blockNum + 1, file.getPreallocEnd());
+      } else {
+         if (Dbg.isEnabled(Dbg.VFS))
+            Dbg.println(Dbg.VFS, "VFS.balloc(" + file.getFileName() + ", end=" + end + ")");
+         BitMapBlock bitmap = getUsedBlockBitmap();
+         int want = (end + Disk.BYTES_PER_SECTOR - 1) / Disk.BYTES_PER_SECTOR - used;
+         int n = Math.min(Math.max(want, preallocMax), inode.getMaxDataBlocks() - used);
+         n = Math.max(n, 1);
+         int limit = getSuperBlock().getNumBlocks();
+         blockNum = -1;
+         // Carry on from the last block if there is room after it
+         int run = (prev >= 0) ? bitmap.clearRun(prev + 1, Math.min(n, limit - prev - 1)) : 0;
+         if (run > 0) {
+            blockNum = prev + 1;
+            bitmap.setRun(blockNum, run);
+         }
+         // else somewhere the rest of the write fits in one run
+         if (blockNum < 0 && want > 1) {
+            run = Math.min(want, n);
+            blockNum = bitmap.allocateRun(run, limit);
+         }
+         // else the first free block and the free ones after it
+         if (blockNum < 0) {
+            blockNum = bitmap.allocateRun(1, limit);
+            run = 1;
+            if (blockNum >= 0) {
+               run += bitmap.clearRun(blockNum + 1, Math.min(n, limit - blockNum) - 1);
+               bitmap.setRun(blockNum + 1, run - 1);
+            }
+         }
+         writeUsedBlockBitmap(bitmap);
+         if (blockNum >= 0)
+            file.setPrealloc(blockNum + 1, blockNum + run);
+      }
+      if (blockNum >= 0) {
+         blocksAllocated.inc();
+         if (prev >= 0 && blockNum == prev + 1) blocksContiguous.inc();
+      }
+      return blockNum;
+   }
+
+   /** give back the blocks set aside for file that it did not use */
+   protected void releasePrealloc(File file) {
+      int next = file.getPreallocNext();
+      int end = file.getPreallocEnd();
+      if (next < end) {
+         BitMapBlock bitmap = getUsedBlockBitmap();
+         bitmap.unsetRun(next, end - next);
+         writeUsedBlockBitmap(bitmap);
+      }
+      file.setPrealloc(0, 0);
+   }
+
+   /**
+    * Allocate an inode number from the inode bitmap
+    * @return inode number that has been allocated,
+    *         -1, if every inode on the disk is in use
+    */
+   protected int inoalloc() {
+      Dbg.println(Dbg.VFS, "VFS.inoalloc()");
+      BitMapBlock inodeBitmap = getInodeBitmap();
+      int ino = inodeBitmap.allocate();
+      // Inode blocks stop at the end of the disk, the bitmap does not
+      if (ino >= 0 && getSuperBlock().calcBlockNum(ino) >= getSuperBlock().getNumBlocks()) {
+         inodeBitmap.unset(ino);
+         ino = -1;
+      }
+      writeInodeBitmap(inodeBitmap);
+      return ino;
+   }
+
+   /**
+    * Chain another block onto the directory when all of its slots
+    * are taken
+    * @return true, on success
+    *         false, if the disk is full
+    */
+   private boolean growDirectory() {
+      int block = balloc();
+      if (block < 0)
+         return false;
+      if (block >= getSuperBlock().getNumBlocks()) {
+         BitMapBlock usedBlockBitmap = getUsedBlockBitmap();
+         usedBlockBitmap.unset(block);
+         writeUsedBlockBitmap(usedBlockBitmap);
+         return false;
+      }
+      if (Dbg.isEnabled(Dbg.VFS))
+         Dbg.println(Dbg.VFS, "VFS.growDirectory(): block " + block);
+      getDirectory().grow(block);
+      return true;
+   }
+
    /**
     * add directory entry with given file name and file inode
     * 
@@ -238,12 +389,8 @@ public abstract class VFS {
       // Write me
 		//p.p("VFS.addDentry(): beginning");
 
-	Dentry addme = new Dentry(fileName, fileInode.getIno()); //still need to add this
-	DirectoryBlock db = getDirDataBlock();
-	boolean added = db.addDentry(addme);
-	Dentry[] a = db.getDentries();
-	writeDirDataBlock(db);
-	return added;
+	Dentry addme = new Dentry(fileName, fileInode.getIno());
+	return getDirectory().addDentry(addme);
 
    }
 
@@ -312,21 +459,23 @@ public abstract class VFS {
     */
    public int create(String fileName) {
 	   p.p("VFS.create()");
-      Dbg.println("vfs", "VFS.create(fileName=" + fileName + ")");
+      if (Dbg.isEnabled(Dbg.VFS))
+         Dbg.println(Dbg.VFS, "VFS.create(fileName=" + fileName + ")");
       if (fileName.getBytes().length > Dentry.MAX_FILENAME) {
          Error.println(Error.ENAMETOOLONG, fileName);
          return -1;
       }
-      DirectoryBlock db = getDirDataBlock();
-      if (!db.isAvailable()) {
-         Error.println(Error.DENTRY_FULL, fileName);
-         return -1;
-      }
-      Dentry dentry = db.lookupByName(fileName);
+      Directory dir = getDirectory();
+      Dentry dentry = dir.lookupByName(fileName);
       if (dentry != null) {
          Error.println(Error.FILE_ALREADY_EXISTS, fileName);
          return -1;
       }
+      // Only a name that will really be added may chain on a block
+      if (!dir.isAvailable() && !growDirectory()) {
+         Error.println(Error.DENTRY_FULL, fileName);
+         return -1;
+      }
       Inode inode = ialloc(Inode.FILE);
       if (inode == null) {
          Error.println(Error.INODE_FULL, fileName);
@@ -372,10 +521,11 @@ public abstract class VFS {
    public int close(int fd) { p.p("VFS.close(fd) = "+fd);
 		File file = openFiles[fd]; p.p("~~~ the file to be closed is "+file.getFileName());
 		Inode inode = file.getInode(); p.p("~~~ the file's inode is "+inode);
+		releasePrealloc(file);
 		//flush the inode data blocks
 		for(int i = 0; i < inode.getDataBlocksUsed(); i++){
 			try{
-				bufferCache.flush(inode.getDataBlock(i), createEvent(OSEvent.SYSCALL_WRITE));
+				bufferCache.flush(inode.getDataBlock(i), createWritebackEvent());
 			}
 			catch (Exception e){
 				return -1;
@@ -384,7 +534,7 @@ public abstract class VFS {
 		//flush the inode block
 		SuperBlock sb = getSuperBlock();
 		try {
-			bufferCache.flush(sb.calcBlockNum(inode.getIno()), createEvent(OSEvent.SYSCALL_WRITE));
+			bufferCache.flush(sb.calcBlockNum(inode.getIno()), createWritebackEvent());
 		}
 		catch (Exception e){
 			return -1;
@@ -432,6 +582,11 @@ public abstract class VFS {
       { assert false : "writeInodeCallback not implemented"; }
    public void readCallback(OSEvent ev)
       { assert false : "readCallback not implemented"; }
+
+   /** a directory block read at startup has come in from the disk */
+   public void initializeCallback(OSEvent ev) {
+      readDirChain(ev.getDiskAddress().sector_number());
+   }
 	
    /**
     * seek system call
@@ -486,18 +641,22 @@ public abstract class VFS {
 	
    /**
     * Read in the first 5 blocks (superblock, used block bitmap, inode bitmap,
-    * inode block and directory data block) from each device.
+    * inode block and directory data block) from each device, and then
+    * the directory blocks chained after the first.
     */
    public void startup() {
       for (int j = 0; j < 5; j++) {
          OSEvent ev = createEvent(OSEvent.NOT_AN_EVENT);
          if (j != 4)
-            ev.putInt("next_state", ST_INITIALIZE);
+            ev.setNextState(ST_INITIALIZE);
          else
-            ev.putInt("next_state", ST_LAST_INITIALIZE);
+            ev.setNextState(ST_LAST_INITIALIZE);
          bufferCache.read(j, ev);
          bufferCache.setPin(j, true);
       }
+      // With sync disks the reads are done, else initializeCallback
+      if (!bufferCache.isPending(BLK_DIRDATABLOCK))
+         readDirChain(BLK_DIRDATABLOCK);
    }
 	
    /**
@@ -507,6 +666,9 @@ public abstract class VFS {
    public void shutdown() {
       // This should be called before the system terminates
       System.out.println("Flushing BufferCache to disk");
+      for (int fd = 0; fd < openFiles.length; fd++)
+         if (openFiles[fd] != null) releasePrealloc(openFiles[fd]);
+      flushMetadata();
       OSEvent ev = createWritebackEvent();
       try{ bufferCache.flushAll(ev); }
 		catch (Exception e) { e.printStackTrace(); }
@@ -528,11 +690,23 @@ public abstract class VFS {
     * @return OSevent
     */
    protected OSEvent createEvent(int syscall_number) {
-      HashMap map = new HashMap();
-      map.put("syscall_number", new Integer(syscall_number));
-      map.put("event_number", OSEvent.I_INT_DISK_READ);
-      OSEvent ev = new OSEvent(map);
-      map = null; // Give up reference explicitly
+      OSEvent ev = new OSEvent(OSEvent.INT_DISK_READ);
+      ev.setSyscallNumber(syscall_number);
+      return ev;
+   }
+
+   /**
+    * Create an event for syscall on behalf of a given process.
+    * Callbacks run while some other process is current, so events
+    * created there must name the process they belong to.
+    * 
+    * @param syscall_number
+    * @param pid process the event belongs to
+    * @return OSevent
+    */
+   protected OSEvent createEvent(int syscall_number, int pid) {
+      OSEvent ev = new OSEvent(OSEvent.INT_DISK_READ, pid);
+      ev.setSyscallNumber(syscall_number);
       return ev;
    }
 
@@ -540,12 +714,9 @@ public abstract class VFS {
     * Create an event for a disk write back, not directly tied to a syscall
     * @return OSevent
     */
-   private OSEvent createWritebackEvent() {
-      HashMap map = new HashMap();
-      map.put("syscall_number", new Integer(OSEvent.NOT_AN_EVENT));
-      map.put("event_number", OSEvent.I_INT_DISK_WRITE);
-      OSEvent ev = new OSEvent(map);
-      map = null; // Give up reference explicitly
+   protected OSEvent createWritebackEvent() {
+      OSEvent ev = new OSEvent(OSEvent.INT_DISK_WRITE);
+      ev.setSyscallNumber(OSEvent.NOT_AN_EVENT);
       return ev;
    }
 	
@@ -555,7 +726,51 @@ public abstract class VFS {
    }
 	
 	/*In async mode, when I/O is finished, you should check io_pending bit to true*/
+   /**
+    * Read ahead of a reader that is about to read data block
+    * currentDataBlock of file.  Only VFSAsync calls this: with sync
+    * disks a prefetch is one more blocking read, so it adds I/O and
+    * saves no time.  The window of a file doubles every time
+    * a block read ahead is used, and halves when the reader seeks or a
+    * block read ahead was evicted before it was used.
+    *
+    * @param file open file being read
+    * @param currentDataBlock index of the data block in the inode
+    */
+   protected void readahead(File file, int currentDataBlock) {
+      if (readaheadMax <= 0)
+         return;
+      int next = file.getReadaheadNext();
+      if (currentDataBlock == next - 1)
+         return; // still in the block we saw last time
+      Inode inode = file.getInode();
+      int block = inode.getDataBlock(currentDataBlock);
+      int window = file.getReadaheadWindow();
+      int end = file.getReadaheadEnd();
+      if (bufferCache.consumePrefetch(block)) {
+         window = Math.min(window * 2, readaheadMax);
+      }
+      else if (currentDataBlock != next
+               || (currentDataBlock < end && bufferCache.lookup(block) == null)) {
+         window = Math.max(window / 2, 1);
+         end = currentDataBlock + 1;
+      }
+      int last = Math.min(currentDataBlock + 1 + window, inode.getDataBlocksUsed());
+      for (int i = Math.max(end, currentDataBlock + 1); i < last; i++)
+         bufferCache.prefetch(inode.getDataBlock(i),
+                              createEvent(OSEvent.SYSCALL_READ, file.getPid()));
+      file.setReadahead(window, currentDataBlock + 1, Math.max(end, last));
+   }
+
    public void pageComplete(int block) {
       bufferCache.decrIOPending(block);
    }
+
+   /**
+    * A disk read is done and its page may be evicted again, so requests
+    * that could not get a page can try again.  Called by OS.interrupt
+    * after the callback for the read.
+    */
+   public void retryWaiting() {
+   }
 }
@@ -0,0 +1,303 @@
+/**
+ * class VFSAsync
+ *
+ * The virtual file system layer.  This is the high
+ * level OS code which manages the file system.
+ * This version of the code does not wait for the disk: a read or write
+ * that misses in the buffer cache blocks the calling process, and the
+ * request is picked up again from readCallback/writeCallback when the
+ * disk interrupt arrives.  Other processes run in the meantime.
+ *
+ * The progress of a request (fd, length, data and bytes done so far)
+ * travels with the disk event, and the file position is kept up to date
+ * block by block, so a request can stop and resume at any block.
+ * A request that finds every page busy waits in waiting until a disk
+ * read is done and frees one.
+ * 
+ * Copyright (c) 2004-09 University of Texas at Austin
+ */
+
+import java.util.LinkedList;
+
+class VFSAsync extends VFS {
+
+	// Requests that could not get a page, oldest first
+	private LinkedList<OSEvent> waiting = new LinkedList<OSEvent>();
+
+	protected VFSAsync(BufferCache _bc, OSInterface _os) {
+		super(_bc, _os);
+	}
+
+   /**
+    * allocate an inode and return an object
+    * 
+    * @param type type of inode (Inode.FILE or Inode.DIR)
+    * @return Inode object
+    * null, on error
+    */
+	protected Inode ialloc(int type) {
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.ialloc(type=" + type + ")");
+		int ino = inoalloc();
+		if (ino < 0)
+			return null;
+		return new Inode(getSuperBlock(), ino, type);
+	}
+
+   /**
+    * Async open system call.  The directory is kept in memory, so
+    * open never has to wait for the disk.
+    *
+    * @param fileName fileName to open
+    * @param mode open mode
+    * @param fd file descriptor to assign
+    * @return fd, on success
+    *           -1, on error
+    */
+   public int open(String fileName, int mode, int fd) {
+	   if (Dbg.isEnabled(Dbg.VFS))
+	      Dbg.println(Dbg.VFS, "VFS.open(fileName="+fileName+",mode="+mode+") : entered");
+	   if(openFiles[fd] != null)
+	   {
+		   Error.println(Error.BAD_FILE_DESCRIPTOR, fileName);
+		   return -1;
+	   }
+	   Dentry dentry = getDirectory().lookupByName(fileName);
+	   if(dentry == null)
+	   {
+		   Error.println(Error.FILE_NOT_FOUND, fileName);
+		   return -1;
+	   }
+	   Inode inode = new Inode(getSuperBlock(), dentry.getIno(), Inode.FILE);
+	   openFiles[fd] = new File(fd, mode, fileName, inode, getCurrentPid());
+	   if (Dbg.isEnabled(Dbg.VFS))
+	      Dbg.println(Dbg.VFS, "VFS.open(fileName="+fileName+",mode="+mode+") : leaving (fd="+fd+")");
+	   return fd;
+   }
+
+   /** 
+    * Async write system call
+    *
+    * @param fd file descriptor to write
+    * @param size size in byte to write
+    * @param data data to be written in the file
+    * @return bytes written before the call returned; the rest is written
+    *         from writeCallback while the process is blocked
+    */
+   public int write(int fd, int size, byte data) {
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.write(fd="+fd+",size="+size+"): entering");
+		if (openFiles[fd] == null) {
+			Error.println(Error.BAD_FILE_DESCRIPTOR, "");
+			return -1;
+		}
+		OSEvent ev = createRequest(OSEvent.SYSCALL_WRITE, getCurrentPid(), fd, size, data, 0);
+		if (!writeBlocks(ev, null))
+			os.block(ev.pid());
+		return ev.getDone();
+   }
+
+   /**
+    * Async read system call
+    * 
+    * @param fd file descriptor
+    * @param size size in byte to read
+    * @return bytes read before the call returned; the rest is read
+    *         from readCallback while the process is blocked
+    */
+   public int read(int fd, int size) {
+		File file = openFiles[fd];
+		if (file == null) {
+			Error.println(Error.BAD_FILE_DESCRIPTOR, "");
+			return -1;
+		}
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.read(fd="+fd+",size="+size+"): entering");
+		if(size > 0)
+			ReadCheck.write(getCurrentPid(), file.getInode().getBytes());
+		OSEvent ev = createRequest(OSEvent.SYSCALL_READ, getCurrentPid(), fd, size, 0, 0);
+		if (!readBlocks(ev, null))
+			os.block(ev.pid());
+		return ev.getDone();
+   }
+
+   public void writeCallback(OSEvent ev) {
+		if (ev.getState() != ST_WRITE_READBLOCK_DONE)
+			return;
+		MemPage page = resume(ev);
+		if (writeBlocks(ev, page)) {
+			if (Dbg.isEnabled(Dbg.VFS))
+				Dbg.println(Dbg.VFS, "VFS.write(fd="+ev.getFd()+",size="+ev.getLength()+"): leaving");
+			os.unblock(ev.pid());
+		}
+   }
+
+   public void readCallback(OSEvent ev) {
+		if (ev.getState() != ST_READ_READBLOCK_DONE)
+			return;
+		MemPage page = resume(ev);
+		if (readBlocks(ev, page)) {
+			if (Dbg.isEnabled(Dbg.VFS))
+				Dbg.println(Dbg.VFS, "VFS.read(fd="+ev.getFd()+",size="+ev.getLength()+"): leaving");
+			os.unblock(ev.pid());
+		}
+   }
+
+   /**
+    * Write the remaining bytes of a write request block by block.
+    *
+    * @param ev the request
+    * @param page the page of the current block if it has just been read
+    *             in for this request, otherwise null
+    * @return true, if the request is finished
+    *         false, if it is waiting for the disk
+    */
+   private boolean writeBlocks(OSEvent ev, MemPage page) {
+		File file = openFiles[ev.getFd()];
+		Inode inode = file.getInode();
+		int size = ev.getLength();
+		byte data = (byte)ev.getData();
+		int bytesWritten = ev.getDone();
+		int currentDataBlock = file.getPos() / Disk.BYTES_PER_SECTOR;
+		while (bytesWritten < size && currentDataBlock < inode.getMaxDataBlocks()) {
+			if (inode.getDataBlocksUsed() <= currentDataBlock) {
+				int newBlock = balloc(file, file.getPos() + size - bytesWritten);
+				if (newBlock < 0) {
+					Error.println(Error.DISK_FULL, file.getFileName());
+					break;
+				}
+				inode.addDataBlock(newBlock);
+			}
+			int block = inode.getDataBlock(currentDataBlock);
+			if (page == null) {
+				page = readBlock(block, ev, bytesWritten, ST_WRITE_READBLOCK_DONE);
+				if (page == null) {
+					ev.setDone(bytesWritten);
+					return !bufferCache.isPending(block) && noPage(ev);
+				}
+			}
+			int startOffset = file.getPos() % Disk.BYTES_PER_SECTOR;
+			int currentOffset = startOffset;
+			byte[] byteBuffer = page.get_bytes();
+			while (bytesWritten < size && currentOffset < Disk.BYTES_PER_SECTOR) {
+				byteBuffer[currentOffset] = data;
+				bytesWritten++;
+				currentOffset++;
+			}
+			bufferCache.markDirty(block, createEvent(OSEvent.SYSCALL_WRITE, ev.pid()));
+			advance(file, currentDataBlock, currentOffset);
+			currentDataBlock = file.getPos() / Disk.BYTES_PER_SECTOR;
+			page = null;
+		}
+		ev.setDone(bytesWritten);
+		return true;
+   }
+
+   /**
+    * Read the remaining bytes of a read request block by block.
+    * @see #writeBlocks
+    */
+   private boolean readBlocks(OSEvent ev, MemPage page) {
+		File file = openFiles[ev.getFd()];
+		Inode inode = file.getInode();
+		int size = ev.getLength();
+		int bytesRead = ev.getDone();
+		int currentDataBlock = file.getPos() / Disk.BYTES_PER_SECTOR;
+		while (bytesRead < size && currentDataBlock < inode.getMaxDataBlocks()) {
+			int block = inode.getDataBlock(currentDataBlock);
+			if (page == null) {
+				readahead(file, currentDataBlock);
+				page = readBlock(block, ev, bytesRead, ST_READ_READBLOCK_DONE);
+				if (page == null) {
+					ev.setDone(bytesRead);
+					return !bufferCache.isPending(block) && noPage(ev);
+				}
+			}
+			int currentOffset = file.getPos() % Disk.BYTES_PER_SECTOR;
+			int n = Math.min(size - bytesRead, Disk.BYTES_PER_SECTOR - currentOffset);
+			bytesRead += n;
+			advance(file, currentDataBlock, currentOffset + n);
+			currentDataBlock = file.getPos() / Disk.BYTES_PER_SECTOR;
+			page = null;
+		}
+		ev.setDone(bytesRead);
+		return true;
+   }
+
+   /**
+    * No page could be had for the next block of ev.  While a disk read
+    * is on its way its page will come free, so ev waits for that;
+    * otherwise nothing will change and the request fails.
+    *
+    * @return false, if ev is waiting
+    *         true, if it has failed, with done set to -1
+    */
+   private boolean noPage(OSEvent ev) {
+		if (bufferCache.anyPending()) {
+			if (Dbg.isEnabled(Dbg.VFS))
+				Dbg.println(Dbg.VFS, "VFS: no free page, pid " + ev.pid() + " waits");
+			waiting.add(ev);
+			return false;
+		}
+		Error.println(Error.NO_FREE_PAGE, openFiles[ev.getFd()].getFileName());
+		ev.setDone(-1);
+		return true;
+   }
+
+   /** go on with the requests that were waiting for a page */
+   public void retryWaiting() {
+		for (int n = waiting.size(); n > 0; n--) {
+			OSEvent ev = waiting.removeFirst();
+			boolean done;
+			if (ev.getSyscallNumber() == OSEvent.SYSCALL_WRITE)
+				done = writeBlocks(ev, null);
+			else
+				done = readBlocks(ev, null);
+			if (done) {
+				if (Dbg.isEnabled(Dbg.VFS))
+					Dbg.println(Dbg.VFS, "VFS: pid " + ev.pid() + " done after waiting for a page");
+				os.unblock(ev.pid());
+			}
+		}
+   }
+
+   /**
+    * Read a block through the buffer cache with a fresh event that carries
+    * the request, so that the request can be resumed from the callback.
+    *
+    * @return the page, or null if the read went to the disk (or failed)
+    */
+   private MemPage readBlock(int block, OSEvent req, int done, int next_state) {
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.readBlock(block="+block+")");
+		OSEvent ev = createRequest(req.getSyscallNumber(), req.pid(),
+		                           req.getFd(), req.getLength(),
+		                           req.getData(), done);
+		ev.setNextState(next_state);
+		return bufferCache.read(block, ev);
+   }
+
+   /** @return the page that the disk has just filled for ev */
+   private MemPage resume(OSEvent ev) {
+		int block = ev.getDiskAddress().sector_number();
+		return ((BufferCacheAsync)bufferCache).readComplete(block, ev);
+   }
+
+   private OSEvent createRequest(int syscall_number, int pid, int fd,
+                                 int length, int data, int done) {
+		OSEvent ev = createEvent(syscall_number, pid);
+		ev.setFd(fd);
+		ev.setLength(length);
+		ev.setData(data);
+		ev.setDone(done);
+		return ev;
+   }
+
+   /** move the file position past what has been done in the current block */
+   private void advance(File file, int currentDataBlock, int currentOffset) {
+		if (currentOffset == Disk.BYTES_PER_SECTOR)
+			file.setPos((currentDataBlock + 1) * Disk.BYTES_PER_SECTOR);
+		else
+			file.setPos(currentDataBlock * Disk.BYTES_PER_SECTOR + currentOffset);
+   }
+}
@@ -20,7 +20,7 @@ class VFSSync extends VFS {
 
 
 /*----------------Inodes to CacheBuffer--------------------
-* Notes: still need to write ialloc()
+* Notes: ialloc() takes the inode number from the inode bitmap
 * 
 */
 
@@ -33,13 +33,12 @@ class VFSSync extends VFS {
     * null, on error
     */
 	protected Inode ialloc(int type) {
-		Dbg.println("vfs", "VFS.ialloc(type=" + type + ")");
-		Inode inode = new Inode(getSuperBlock());  //do i need an "ino"?
-		// Write me
-		inode.setType(type);
-
-		return inode;
-		//remember to return an error if it is null
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.ialloc(type=" + type + ")");
+		int ino = inoalloc();
+		if (ino < 0)
+			return null;
+		return new Inode(getSuperBlock(), ino, type);
 	}
 
    /**
@@ -69,7 +68,8 @@ class VFSSync extends VFS {
     *        //write me
     */
    private int writeInode(Inode inode, OSEvent ev) {
-      Dbg.println("vfs", "VFS.writeInode(ino="+inode.getIno()+")");
+      if (Dbg.isEnabled(Dbg.VFS))
+         Dbg.println(Dbg.VFS, "VFS.writeInode(ino="+inode.getIno()+")");
       int x = getBufferCache().write(getSuperBlock().calcBlockNum(inode.getIno()), inode.getBytes(), ev);
       if(x != 0) { return -1; }  //the write failed
       return 0;
@@ -85,7 +85,8 @@ class VFSSync extends VFS {
     * write me
     */
    private MemPage readBlock(int block, OSEvent ev) {
-      Dbg.println("vfs", "VFS.readBlock(block="+block+")");
+      if (Dbg.isEnabled(Dbg.VFS))
+         Dbg.println(Dbg.VFS, "VFS.readBlock(block="+block+")");
       MemPage page = getBufferCache().read(block, ev);
       return page; 
    }
@@ -109,14 +110,14 @@ class VFSSync extends VFS {
     *           //write me
     */
    public int open(String fileName, int mode, int fd) {
-	   Dbg.println("vfs", "VFS.open(fileName="+fileName+",mode="+mode+") : entered");
+	   if (Dbg.isEnabled(Dbg.VFS))
+	      Dbg.println(Dbg.VFS, "VFS.open(fileName="+fileName+",mode="+mode+") : entered");
 	   if(openFiles[fd] != null)
 	   {
 		   Error.println(Error.BAD_FILE_DESCRIPTOR, fileName);
 		   return -1;
 	   }
-	   DirectoryBlock db = getDirDataBlock();
-	   Dentry dentry = db.lookupByName(fileName);
+	   Dentry dentry = getDirectory().lookupByName(fileName);
 	   if(dentry == null)
 	   {
 		   Error.println(Error.FILE_NOT_FOUND, fileName);
@@ -126,7 +127,8 @@ class VFSSync extends VFS {
 	   Inode inode = new Inode(getSuperBlock(), ino, Inode.FILE);
 	   File openme = new File(fd, mode, fileName, inode, getCurrentPid());
 	   openFiles[fd] = openme;
-	   Dbg.println("vfs", "VFS.open(fileName="+fileName+",mode="+mode+") : leaving (fd="+fd+")");
+	   if (Dbg.isEnabled(Dbg.VFS))
+	      Dbg.println(Dbg.VFS, "VFS.open(fileName="+fileName+",mode="+mode+") : leaving (fd="+fd+")");
 	   return fd;
    	}
 
@@ -144,7 +146,8 @@ class VFSSync extends VFS {
  	  	File file = openFiles[fd]; p.p("~~~ the file is "+file.getFileName());
 		Inode inode = file.getInode();
 		// prepare loop metadata
-		Dbg.println("vfs", "VFS.write(fd="+fd+",size="+size+"): entering");
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.write(fd="+fd+",size="+size+"): entering");
 		int bytesWritten = 0;
 		int currentDataBlock = file.getPos() / Disk.BYTES_PER_SECTOR; p.p("~~~ current data block is "+currentDataBlock);
 		// while not all bytes have been written or inode is full
@@ -153,11 +156,15 @@ class VFSSync extends VFS {
 			int currentInodeBlocksUsed = inode.getDataBlocksUsed(); p.p("~~~ current data blocks used is "+currentInodeBlocksUsed);
 			// allocate a inode block if necessary
 			if (currentInodeBlocksUsed <= currentDataBlock){
-				inode.addDataBlock(balloc()); p.p("~~~ current data blocks used is "+inode.getDataBlocksUsed());
+				int block = balloc(file, file.getPos() + size - bytesWritten);
+				if (block < 0) {
+					Error.println(Error.DISK_FULL, file.getFileName());
+					break;
+				}
+				inode.addDataBlock(block); p.p("~~~ current data blocks used is "+inode.getDataBlocksUsed());
 			}
 			// set current offset, get page from cache and get the byte array from the page
 			int currentOffset = file.getPos() % Disk.BYTES_PER_SECTOR; p.p("~~~ current offset is "+currentOffset);
-			int permenantOffset = file.getPos() % Disk.BYTES_PER_SECTOR;				
 			MemPage page = bufferCache.read(inode.getDataBlock(currentDataBlock), createEvent(OSEvent.SYSCALL_READ));
 			byte[] byteBuffer = page.get_bytes();
 			//write data to byteBuffer size times or until block is full
@@ -166,14 +173,8 @@ class VFSSync extends VFS {
 				bytesWritten++;
 				currentOffset++;
 			}
-			// write byte array back to page and page back to cache
-			try{
-				page.write(byteBuffer, permenantOffset, (currentOffset - permenantOffset));
-				bufferCache.write(inode.getDataBlock(currentDataBlock), page.get_bytes(), createEvent(OSEvent.SYSCALL_WRITE));
-			}
-			catch (Exception e) {
-				e.printStackTrace();
-			}
+			// the bytes were changed in the cached page itself
+			bufferCache.markDirty(inode.getDataBlock(currentDataBlock), createEvent(OSEvent.SYSCALL_WRITE));
 			// update file.setPos(int) and block number
 			if(currentOffset == Disk.BYTES_PER_SECTOR){
 				file.setPos((currentDataBlock + 1) * Disk.BYTES_PER_SECTOR);
@@ -183,7 +184,8 @@ class VFSSync extends VFS {
 				file.setPos(currentDataBlock*Disk.BYTES_PER_SECTOR + currentOffset);
 			}
 		}
-		Dbg.println("vfs", "VFS.write(fd="+fd+",size="+size+"): leaving");
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.write(fd="+fd+",size="+size+"): leaving");
 
 		return bytesWritten;
    }   
@@ -205,7 +207,8 @@ class VFSSync extends VFS {
 			Error.println(Error.BAD_FILE_DESCRIPTOR, "");
 			return -1;
 		}
-		Dbg.println("vfs", "VFS.read(fd="+fd+",size="+size+"): entering");
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.read(fd="+fd+",size="+size+"): entering");
 		//Write me
    		//p.p("VFSSync.read(): filename = " +file.getFileName());
 		int bytes_read = 0;
@@ -235,7 +238,8 @@ class VFSSync extends VFS {
 			}	
 		}
 		
-		Dbg.println("vfs", "VFS.read(fd="+fd+",size="+size+"): leaving");
+		if (Dbg.isEnabled(Dbg.VFS))
+			Dbg.println(Dbg.VFS, "VFS.read(fd="+fd+",size="+size+"): leaving");
 		p.p("VFSSync.read(): bytes_read = " + bytes_read);
 		  p.p("VFSSync.read(): end");
 